@@ -0,0 +1,98 @@
+package com.balthazargronon.RCTZeroconf;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Packs resolved services into a compact base64 string, sent in place of one map per service
+ * and decoded by {@code decodeServices()} in src/index.js. Every string is written once in a
+ * string table and then referenced by index, so the types, domains and TXT keys repeated by
+ * most services cost a few bytes each.
+ * <p>
+ * Layout, all integers being unsigned LEB128 varints: the format version, the number of
+ * strings followed by each string as its UTF-8 length and bytes, then the number of services
+ * followed by each service as its name index, full name and host indexes plus one (0 for
+ * none), port, address count and indexes, TXT record count and key/value indexes, and flags
+ * (bit 0: cached).
+ */
+public final class CompactServiceEncoder {
+
+    public static final int VERSION = 1;
+    private static final int FLAG_CACHED = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    private CompactServiceEncoder() {
+    }
+
+    public static String encode(Collection<DiscoveredService> services) {
+        CompactServiceEncoder encoder = new CompactServiceEncoder();
+        writeVarint(encoder.body, services.size());
+        for (DiscoveredService service : services) {
+            encoder.writeService(service);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(encoder.body.size() + 16 * encoder.strings.size());
+        writeVarint(out, VERSION);
+        writeVarint(out, encoder.strings.size());
+        for (String string : encoder.strings) {
+            byte[] bytes = string.getBytes(UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        byte[] body = encoder.body.toByteArray();
+        out.write(body, 0, body.length);
+        return Base64.encodeToString(out.toByteArray(), Base64.NO_WRAP);
+    }
+
+    private void writeService(DiscoveredService service) {
+        writeVarint(body, indexOf(service.getName()));
+        writeNullable(service.getFullName());
+        writeNullable(service.getHost());
+        writeVarint(body, service.getPort());
+        writeVarint(body, service.getAddresses().size());
+        for (String address : service.getAddresses()) {
+            writeVarint(body, indexOf(address));
+        }
+        writeVarint(body, service.getTxt().size());
+        for (Map.Entry<String, String> record : service.getTxt().entrySet()) {
+            writeVarint(body, indexOf(record.getKey()));
+            writeVarint(body, indexOf(record.getValue()));
+        }
+        writeVarint(body, service.isCached() ? FLAG_CACHED : 0);
+    }
+
+    private void writeNullable(@Nullable String value) {
+        writeVarint(body, value != null ? indexOf(value) + 1 : 0);
+    }
+
+    private int indexOf(String value) {
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            indexes.put(value, index);
+        }
+        return index;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
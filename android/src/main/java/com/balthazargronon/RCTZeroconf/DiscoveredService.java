@@ -0,0 +1,124 @@
+package com.balthazargronon.RCTZeroconf;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implementation independent snapshot of a discovered service, serialized the same way
+ * for every event and for {@link ZeroconfModule#getServices}.
+ */
+public class DiscoveredService {
+    private final String name;
+    @Nullable private final String fullName;
+    @Nullable private final String host;
+    private final int port;
+    private final List<String> addresses;
+    private final Map<String, String> txt;
+    private final boolean resolved;
+    private final boolean cached;
+
+    /**
+     * A service that has been found by a browse but not resolved yet.
+     */
+    public DiscoveredService(String name) {
+        this(name, null, null, 0, Collections.<String>emptyList(), Collections.<String, String>emptyMap(), false, false);
+    }
+
+    public DiscoveredService(String name, @Nullable String fullName, @Nullable String host, int port,
+                             List<String> addresses, Map<String, String> txt) {
+        this(name, fullName, host, port, addresses, txt, true, false);
+    }
+
+    private DiscoveredService(String name, @Nullable String fullName, @Nullable String host, int port,
+                              List<String> addresses, Map<String, String> txt, boolean resolved, boolean cached) {
+        this.name = name;
+        this.fullName = fullName;
+        this.host = host;
+        this.port = port;
+        this.addresses = Collections.unmodifiableList(addresses);
+        this.txt = Collections.unmodifiableMap(txt);
+        this.resolved = resolved;
+        this.cached = cached;
+    }
+
+    /**
+     * A copy of this service replayed from the {@link DiscoveryCache}, not yet confirmed by
+     * live discovery.
+     */
+    public DiscoveredService asCached() {
+        return new DiscoveredService(name, fullName, host, port, addresses, txt, resolved, true);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Nullable
+    public String getFullName() {
+        return fullName;
+    }
+
+    @Nullable
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public List<String> getAddresses() {
+        return addresses;
+    }
+
+    public Map<String, String> getTxt() {
+        return txt;
+    }
+
+    public boolean isResolved() {
+        return resolved;
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    public WritableMap toWritableMap() {
+        WritableMap service = new WritableNativeMap();
+        service.putString(ZeroconfModule.KEY_SERVICE_NAME, name);
+        if (!resolved) {
+            return service;
+        }
+
+        if (host != null) {
+            service.putString(ZeroconfModule.KEY_SERVICE_HOST, host);
+
+            WritableArray addressArray = new WritableNativeArray();
+            for (String address : addresses) {
+                addressArray.pushString(address);
+            }
+            service.putArray(ZeroconfModule.KEY_SERVICE_ADDRESSES, addressArray);
+        }
+        service.putString(ZeroconfModule.KEY_SERVICE_FULL_NAME, fullName);
+        service.putInt(ZeroconfModule.KEY_SERVICE_PORT, port);
+
+        WritableMap txtRecords = new WritableNativeMap();
+        for (Map.Entry<String, String> record : txt.entrySet()) {
+            txtRecords.putString(record.getKey(), record.getValue());
+        }
+        service.putMap(ZeroconfModule.KEY_SERVICE_TXT, txtRecords);
+        if (cached) {
+            service.putBoolean(ZeroconfModule.KEY_SERVICE_CACHED, true);
+        }
+
+        return service;
+    }
+}
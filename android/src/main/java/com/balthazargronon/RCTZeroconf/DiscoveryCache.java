@@ -0,0 +1,271 @@
+package com.balthazargronon.RCTZeroconf;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LRU cache of resolved services, replayed when a scan starts so the app can show the last
+ * known services before live discovery confirms them.
+ * <p>
+ * Services are partitioned by the network they were resolved on, see {@link NetworkMonitor},
+ * and only those of the current network are returned. The partitions of other networks stay
+ * dormant until the device comes back to them. They are always kept in memory and also
+ * written to disk once persistence is enabled.
+ * <p>
+ * The cache is stored in a compact binary file starting with a magic number and a schema
+ * version, a file with any other version is discarded. Reads and writes happen on a single
+ * background thread, writes are batched over {@link #WRITE_DELAY_MS}.
+ */
+public class DiscoveryCache {
+    private static final String TAG = "DiscoveryCache";
+
+    private static final int MAGIC = 0x525a4443; // "RZDC"
+    private static final int SCHEMA_VERSION = 2;
+    private static final long WRITE_DELAY_MS = 2 * 1000;
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static class Entry {
+        private final String network;
+        private final String type;
+        private final DiscoveredService service;
+
+        Entry(String network, String type, DiscoveredService service) {
+            this.network = network;
+            this.type = type;
+            this.service = service;
+        }
+    }
+
+    private final File file;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private boolean enabled;
+    private boolean closed;
+    private ScheduledFuture<?> pendingWrite;
+    private String network = NetworkMonitor.NO_NETWORK;
+
+    public DiscoveryCache(File file) {
+        this.file = file;
+    }
+
+    private static String keyOf(String network, String type, String name) {
+        return network + "/" + type + "/" + name;
+    }
+
+    /**
+     * Read the cache file in the background. Services put before it is read are kept.
+     */
+    public void load() {
+        executor.execute(() -> {
+            List<Entry> loaded = read();
+            synchronized (this) {
+                for (Entry entry : loaded) {
+                    String key = keyOf(entry.network, entry.type, entry.service.getName());
+                    if (!entries.containsKey(key)) {
+                        entries.put(key, entry);
+                    }
+                }
+            }
+        });
+    }
+
+    public synchronized String getNetwork() {
+        return network;
+    }
+
+    /**
+     * Switch to the partition of another network.
+     */
+    public synchronized void setNetwork(String network) {
+        this.network = network;
+    }
+
+    /**
+     * Enable or disable persistence, disabling it deletes the file.
+     */
+    public synchronized void setEnabled(boolean enabled, int maxEntries) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries > 0 ? maxEntries : DEFAULT_MAX_ENTRIES;
+        if (!enabled) {
+            executor.execute(() -> {
+                if (file.exists() && !file.delete()) {
+                    Log.w(TAG, "Failed to delete " + file);
+                }
+            });
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the cached services of the given type on the current network, most recently
+     * used last.
+     */
+    public synchronized List<DiscoveredService> get(String type) {
+        List<DiscoveredService> services = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.network.equals(network) && entry.type.equals(type)) {
+                services.add(entry.service);
+            }
+        }
+        return services;
+    }
+
+    public synchronized void put(String type, DiscoveredService service) {
+        entries.put(keyOf(network, type, service.getName()), new Entry(network, type, service));
+        scheduleWrite();
+    }
+
+    public synchronized void remove(String type, String name) {
+        if (entries.remove(keyOf(network, type, name)) != null) {
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Write the pending changes right away and stop the background thread once done. Changes
+     * made afterwards are kept in memory only.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (pendingWrite != null && pendingWrite.cancel(false)) {
+            executor.execute(this::write);
+        }
+        executor.shutdown();
+    }
+
+    private void scheduleWrite() {
+        if (!enabled || closed || pendingWrite != null) {
+            return;
+        }
+        pendingWrite = executor.schedule(this::write, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void write() {
+        List<Entry> snapshot;
+        synchronized (this) {
+            pendingWrite = null;
+            if (!enabled) {
+                return;
+            }
+            snapshot = new ArrayList<>(entries.values());
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(SCHEMA_VERSION);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.network);
+                out.writeUTF(entry.type);
+                writeService(out, entry.service);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Failed to replace " + file);
+        }
+    }
+
+    private List<Entry> read() {
+        List<Entry> loaded = new ArrayList<>();
+        if (!file.exists()) {
+            return loaded;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != SCHEMA_VERSION) {
+                throw new IOException("Unsupported cache format");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String entryNetwork = in.readUTF();
+                String type = in.readUTF();
+                loaded.add(new Entry(entryNetwork, type, readService(in)));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding " + file, e);
+            loaded.clear();
+            if (!file.delete()) {
+                Log.w(TAG, "Failed to delete " + file);
+            }
+        }
+        return loaded;
+    }
+
+    private static void writeService(DataOutputStream out, DiscoveredService service) throws IOException {
+        out.writeUTF(service.getName());
+        writeNullableString(out, service.getFullName());
+        writeNullableString(out, service.getHost());
+        out.writeInt(service.getPort());
+        out.writeShort(service.getAddresses().size());
+        for (String address : service.getAddresses()) {
+            out.writeUTF(address);
+        }
+        out.writeShort(service.getTxt().size());
+        for (Map.Entry<String, String> record : service.getTxt().entrySet()) {
+            out.writeUTF(record.getKey());
+            out.writeUTF(record.getValue());
+        }
+    }
+
+    private static DiscoveredService readService(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        String fullName = readNullableString(in);
+        String host = readNullableString(in);
+        int port = in.readInt();
+        int addressCount = in.readUnsignedShort();
+        List<String> addresses = new ArrayList<>(addressCount);
+        for (int i = 0; i < addressCount; i++) {
+            addresses.add(in.readUTF());
+        }
+        int txtCount = in.readUnsignedShort();
+        Map<String, String> txt = new HashMap<>();
+        for (int i = 0; i < txtCount; i++) {
+            txt.put(in.readUTF(), in.readUTF());
+        }
+        return new DiscoveredService(name, fullName, host, port, addresses, txt);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,114 @@
+package com.balthazargronon.RCTZeroconf;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Alternates a scan between active windows, where it browses, and idle windows, where the
+ * browse is paused so the radio can sleep. A burst makes the scan active right away for at
+ * least the burst duration, e.g. after a network change or when the app comes back to the
+ * foreground. Every window is reported to the {@link ScanStats}. Runs on the main thread.
+ */
+public class DutyCycle {
+
+    public interface Listener {
+        void onActive();
+
+        /**
+         * @param activeSince when the active window that just ended started, services not seen
+         *                    since then may be gone.
+         */
+        void onIdle(long activeSince);
+    }
+
+    private final long activeMs;
+    private final long idleMs;
+    private final long burstMs;
+    private final ScanStats stats;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable goActive = this::goActive;
+    private final Runnable goIdle = this::goIdle;
+    private boolean active;
+    private long windowStart;
+    private long activeUntil;
+    private boolean discoveredInWindow;
+
+    public DutyCycle(long activeMs, long idleMs, long burstMs, ScanStats stats, Listener listener) {
+        this.activeMs = activeMs;
+        this.idleMs = idleMs;
+        this.burstMs = burstMs;
+        this.stats = stats;
+        this.listener = listener;
+    }
+
+    /**
+     * Start with an active window, the scan must already be browsing.
+     */
+    public void start() {
+        startWindow(activeMs);
+    }
+
+    public void stop() {
+        handler.removeCallbacks(goActive);
+        handler.removeCallbacks(goIdle);
+        if (active) {
+            stats.onActiveWindow(SystemClock.elapsedRealtime() - windowStart);
+        }
+        active = false;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Keep the scan active for at least the burst duration, resuming it if it is idle.
+     */
+    public void burst() {
+        if (active) {
+            long now = SystemClock.elapsedRealtime();
+            if (now + burstMs > activeUntil) {
+                activeUntil = now + burstMs;
+                handler.removeCallbacks(goIdle);
+                handler.postDelayed(goIdle, burstMs);
+            }
+            return;
+        }
+        handler.removeCallbacks(goActive);
+        startWindow(burstMs);
+        listener.onActive();
+    }
+
+    /**
+     * Called when a service is resolved, the first one of each window measures how long
+     * discovery took after the scan resumed.
+     */
+    public void onDiscovered() {
+        if (active && !discoveredInWindow) {
+            discoveredInWindow = true;
+            stats.onDiscoveryLatency(SystemClock.elapsedRealtime() - windowStart);
+        }
+    }
+
+    private void startWindow(long durationMs) {
+        active = true;
+        discoveredInWindow = false;
+        windowStart = SystemClock.elapsedRealtime();
+        activeUntil = windowStart + durationMs;
+        handler.postDelayed(goIdle, durationMs);
+    }
+
+    private void goActive() {
+        startWindow(activeMs);
+        listener.onActive();
+    }
+
+    private void goIdle() {
+        active = false;
+        stats.onActiveWindow(SystemClock.elapsedRealtime() - windowStart);
+        handler.postDelayed(goActive, idleMs);
+        listener.onIdle(windowStart);
+    }
+}
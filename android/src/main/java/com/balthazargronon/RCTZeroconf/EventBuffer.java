@@ -0,0 +1,151 @@
+package com.balthazargronon.RCTZeroconf;
+
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Holds back the events sent while the app is in the background, or while a batch is being
+ * collected. Found, resolved and removed services are folded into one diff holding the latest
+ * state of each service, the other events are kept in order, up to {@link #MAX_EVENTS}.
+ * Resolved services may be held as {@link DiscoveredService}, so they are only converted when
+ * the diff is built, to maps or to one {@link CompactServiceEncoder} string. Thread safe.
+ */
+public class EventBuffer {
+
+    public static final String KEY_FOUND = "found";
+    public static final String KEY_RESOLVED = "resolved";
+    public static final String KEY_REMOVED = "removed";
+    public static final String KEY_PACKED = "packed";
+
+    private static final int MAX_EVENTS = 100;
+
+    public interface Emitter {
+        void emit(String eventName, @Nullable Object params);
+    }
+
+    private static class Event {
+        private final String name;
+        @Nullable
+        private final Object params;
+
+        Event(String name, @Nullable Object params) {
+            this.name = name;
+            this.params = params;
+        }
+    }
+
+    private final Set<String> found = new LinkedHashSet<>();
+    private final Map<String, Object> resolved = new LinkedHashMap<>();
+    private final Set<String> removed = new LinkedHashSet<>();
+    private final Deque<Event> events = new ArrayDeque<>();
+
+    public synchronized void add(String eventName, @Nullable Object params) {
+        String name = isServiceEvent(eventName) ? serviceName(params) : null;
+        if (name != null) {
+            switch (eventName) {
+                case ZeroconfModule.EVENT_FOUND:
+                    if (!resolved.containsKey(name)) {
+                        removed.remove(name);
+                        found.add(name);
+                    }
+                    return;
+                case ZeroconfModule.EVENT_RESOLVE:
+                    found.remove(name);
+                    removed.remove(name);
+                    resolved.remove(name);
+                    resolved.put(name, params);
+                    return;
+                default:
+                    found.remove(name);
+                    resolved.remove(name);
+                    removed.add(name);
+                    return;
+            }
+        }
+
+        events.addLast(new Event(eventName, params));
+        if (events.size() > MAX_EVENTS) {
+            events.removeFirst();
+        }
+    }
+
+    /**
+     * Emit the held back events followed by the diff, if any, and start over.
+     *
+     * @param compact whether to pack the resolved services into one string
+     */
+    public synchronized void flush(Emitter emitter, boolean compact) {
+        while (!events.isEmpty()) {
+            Event event = events.removeFirst();
+            emitter.emit(event.name, event.params);
+        }
+
+        if (found.isEmpty() && resolved.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        WritableArray foundArray = new WritableNativeArray();
+        for (String name : found) {
+            foundArray.pushString(name);
+        }
+        WritableArray resolvedArray = new WritableNativeArray();
+        List<DiscoveredService> packed = new ArrayList<>();
+        for (Object service : resolved.values()) {
+            if (service instanceof DiscoveredService) {
+                if (compact) {
+                    packed.add((DiscoveredService) service);
+                } else {
+                    resolvedArray.pushMap(((DiscoveredService) service).toWritableMap());
+                }
+            } else {
+                resolvedArray.pushMap((ReadableMap) service);
+            }
+        }
+        WritableArray removedArray = new WritableNativeArray();
+        for (String name : removed) {
+            removedArray.pushString(name);
+        }
+        WritableMap diff = new WritableNativeMap();
+        diff.putArray(KEY_FOUND, foundArray);
+        diff.putArray(KEY_RESOLVED, resolvedArray);
+        diff.putArray(KEY_REMOVED, removedArray);
+        if (!packed.isEmpty()) {
+            diff.putString(KEY_PACKED, CompactServiceEncoder.encode(packed));
+        }
+        found.clear();
+        resolved.clear();
+        removed.clear();
+        emitter.emit(ZeroconfModule.EVENT_DIFF, diff);
+    }
+
+    @Nullable
+    private static String serviceName(@Nullable Object params) {
+        if (params instanceof DiscoveredService) {
+            return ((DiscoveredService) params).getName();
+        }
+        // ReadableNativeMap throws on a missing key
+        if (params instanceof ReadableMap && ((ReadableMap) params).hasKey(ZeroconfModule.KEY_SERVICE_NAME)) {
+            return ((ReadableMap) params).getString(ZeroconfModule.KEY_SERVICE_NAME);
+        }
+        return null;
+    }
+
+    public static boolean isServiceEvent(String eventName) {
+        return ZeroconfModule.EVENT_FOUND.equals(eventName)
+                || ZeroconfModule.EVENT_RESOLVE.equals(eventName)
+                || ZeroconfModule.EVENT_REMOVE.equals(eventName);
+    }
+}
@@ -0,0 +1,138 @@
+package com.balthazargronon.RCTZeroconf;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.RouteInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tracks the identity of the network the device is on, built from the interface name and the
+ * gateway of its default route, e.g. "wlan0|192.168.1.1", so the services found on a network
+ * can be told apart from those of another one. The listener is called on the main thread
+ * once a new identity has lasted {@link #SETTLE_MS}, so a network that drops and comes back
+ * right away, or flaps between two networks, isn't reported. The first network is reported
+ * right away.
+ */
+public class NetworkMonitor {
+    private static final String TAG = "NetworkMonitor";
+
+    public static final String NO_NETWORK = "none";
+    public static final long SETTLE_MS = 2 * 1000;
+
+    public interface Listener {
+        void onNetworkChanged(String networkId);
+    }
+
+    private final ConnectivityManager connectivityManager;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable settle = this::report;
+    private String networkId = NO_NETWORK;
+    @Nullable
+    private String reportedId;
+    @Nullable
+    private Network network;
+    @Nullable
+    private ConnectivityManager.NetworkCallback callback;
+
+    public NetworkMonitor(Context context, Listener listener) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+
+    public static String identify(LinkProperties linkProperties) {
+        String gateway = "";
+        for (RouteInfo route : linkProperties.getRoutes()) {
+            if (route.isDefaultRoute() && route.hasGateway()) {
+                gateway = route.getGateway().getHostAddress();
+                break;
+            }
+        }
+        return linkProperties.getInterfaceName() + "|" + gateway;
+    }
+
+    public void start() {
+        if (callback != null || connectivityManager == null) {
+            return;
+        }
+        callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onLinkPropertiesChanged(Network changed, LinkProperties linkProperties) {
+                String id = identify(linkProperties);
+                handler.post(() -> update(changed, id));
+            }
+
+            @Override
+            public void onLost(Network lost) {
+                handler.post(() -> {
+                    if (lost.equals(network)) {
+                        update(null, NO_NETWORK);
+                    }
+                });
+            }
+        };
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                connectivityManager.registerDefaultNetworkCallback(callback);
+            } else {
+                NetworkRequest request = new NetworkRequest.Builder()
+                        .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                        .addTransportType(NetworkCapabilities.TRANSPORT_ETHERNET)
+                        .build();
+                connectivityManager.registerNetworkCallback(request, callback);
+            }
+        } catch (RuntimeException e) {
+            // Missing ACCESS_NETWORK_STATE, every service then lands in the same partition
+            Log.w(TAG, "Failed to monitor the network", e);
+            callback = null;
+        }
+    }
+
+    public void stop() {
+        if (callback == null) {
+            return;
+        }
+        try {
+            connectivityManager.unregisterNetworkCallback(callback);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to stop monitoring the network", e);
+        }
+        callback = null;
+        handler.removeCallbacksAndMessages(null);
+    }
+
+    public String getNetworkId() {
+        return networkId;
+    }
+
+    private void update(@Nullable Network network, String id) {
+        this.network = network;
+        if (id.equals(networkId)) {
+            return;
+        }
+        networkId = id;
+        handler.removeCallbacks(settle);
+        if (reportedId == null) {
+            report();
+        } else {
+            handler.postDelayed(settle, SETTLE_MS);
+        }
+    }
+
+    private void report() {
+        if (networkId.equals(reportedId)) {
+            return;
+        }
+        reportedId = networkId;
+        listener.onNetworkChanged(networkId);
+    }
+}
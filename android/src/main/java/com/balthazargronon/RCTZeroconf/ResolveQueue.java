@@ -0,0 +1,148 @@
+package com.balthazargronon.RCTZeroconf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Thread safe queue of the services waiting to be resolved, which runs a limited number of
+ * resolves at a time and starts the preferred services first. A service is preferred when its
+ * name equals or starts with one of the priority entries, earlier entries going first.
+ * Services of the same priority are resolved in the order they were found, background work
+ * added with {@link #addLast} goes after all of them.
+ *
+ * @param <T> the implementation specific service object to resolve.
+ */
+public class ResolveQueue<T> {
+
+    public interface Resolver<T> {
+        /**
+         * Start resolving the service, {@code done} must be run once the resolve slot can be
+         * reused. Running it more than once is harmless.
+         */
+        void resolve(T service, Runnable done);
+    }
+
+    private static class Pending<T> implements Comparable<Pending<T>> {
+        private final String name;
+        private final T service;
+        private final int rank;
+        private final long sequence;
+
+        Pending(String name, T service, int rank, long sequence) {
+            this.name = name;
+            this.service = service;
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Pending<T> other) {
+            if (rank != other.rank) {
+                return rank < other.rank ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    // Services without a priority entry, and background work which goes after them
+    private static final int UNRANKED = Integer.MAX_VALUE - 1;
+    private static final int LAST = Integer.MAX_VALUE;
+
+    private final int maxInFlight;
+    private final Resolver<T> resolver;
+    private final PriorityQueue<Pending<T>> pending = new PriorityQueue<>();
+    private List<String> priority = Collections.emptyList();
+    private long sequence;
+    private int inFlight;
+    // Bumped by clear() so the slots of abandoned resolves are not released twice
+    private int generation;
+
+    public ResolveQueue(int maxInFlight, Resolver<T> resolver) {
+        this.maxInFlight = maxInFlight;
+        this.resolver = resolver;
+    }
+
+    public synchronized void setPriority(List<String> priority) {
+        this.priority = new ArrayList<>(priority);
+    }
+
+    public void add(String name, T service) {
+        add(name, service, rankOf(name));
+    }
+
+    /**
+     * Queue background work, such as a liveness check, behind every service whatever its name.
+     */
+    public void addLast(String name, T service) {
+        add(name, service, LAST);
+    }
+
+    private void add(String name, T service, int rank) {
+        synchronized (this) {
+            pending.add(new Pending<>(name, service, rank, sequence++));
+        }
+        drain();
+    }
+
+    /**
+     * Drop a service that hasn't started resolving yet, e.g. because it was lost.
+     */
+    public synchronized void remove(String name) {
+        Iterator<Pending<T>> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().name.equals(name)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop every pending service and forget the running ones, which the caller cancels.
+     */
+    public synchronized void clear() {
+        pending.clear();
+        inFlight = 0;
+        generation++;
+    }
+
+    private int rankOf(String name) {
+        for (int i = 0; i < priority.size(); i++) {
+            if (name.startsWith(priority.get(i))) {
+                return i;
+            }
+        }
+        return UNRANKED;
+    }
+
+    private void drain() {
+        while (true) {
+            Pending<T> next;
+            final int startedGeneration;
+            synchronized (this) {
+                if (inFlight >= maxInFlight || pending.isEmpty()) {
+                    return;
+                }
+                next = pending.poll();
+                inFlight++;
+                startedGeneration = generation;
+            }
+
+            final AtomicBoolean released = new AtomicBoolean();
+            resolver.resolve(next.service, () -> {
+                if (released.compareAndSet(false, true)) {
+                    synchronized (ResolveQueue.this) {
+                        if (startedGeneration != generation) {
+                            return;
+                        }
+                        inFlight--;
+                    }
+                    drain();
+                }
+            });
+        }
+    }
+}
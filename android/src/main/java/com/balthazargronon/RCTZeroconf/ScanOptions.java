@@ -0,0 +1,101 @@
+package com.balthazargronon.RCTZeroconf;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Optional settings of a scan, parsed from the options map passed from JS.
+ */
+public class ScanOptions {
+
+    public static final String KEY_ALL_DOMAINS = "allDomains";
+    public static final String KEY_SUBTYPE = "subtype";
+    public static final String KEY_FILTER = "filter";
+    public static final String KEY_PRIORITY = "priority";
+    public static final String KEY_DUTY_CYCLE = "dutyCycle";
+    public static final String KEY_ACTIVE_MS = "activeMs";
+    public static final String KEY_IDLE_MS = "idleMs";
+    public static final String KEY_BURST_MS = "burstMs";
+
+    private boolean allDomains;
+    @Nullable
+    private String subtype;
+    private ServiceFilter filter = ServiceFilter.from(null);
+    private final List<String> priority = new ArrayList<>();
+    private long activeMs;
+    private long idleMs;
+    private long burstMs;
+
+    public static ScanOptions from(@Nullable ReadableMap map) {
+        ScanOptions options = new ScanOptions();
+        if (map == null) {
+            return options;
+        }
+        if (map.hasKey(KEY_ALL_DOMAINS) && !map.isNull(KEY_ALL_DOMAINS)) {
+            options.allDomains = map.getBoolean(KEY_ALL_DOMAINS);
+        }
+        if (map.hasKey(KEY_SUBTYPE) && !map.isNull(KEY_SUBTYPE)) {
+            options.subtype = ZeroconfModule.subtypeLabel(map.getString(KEY_SUBTYPE));
+        }
+        if (map.hasKey(KEY_FILTER) && !map.isNull(KEY_FILTER)) {
+            options.filter = ServiceFilter.from(map.getMap(KEY_FILTER));
+        }
+        if (map.hasKey(KEY_PRIORITY) && !map.isNull(KEY_PRIORITY)) {
+            ReadableArray names = map.getArray(KEY_PRIORITY);
+            for (int i = 0; i < names.size(); i++) {
+                options.priority.add(names.getString(i));
+            }
+        }
+        if (map.hasKey(KEY_DUTY_CYCLE) && !map.isNull(KEY_DUTY_CYCLE)) {
+            ReadableMap dutyCycle = map.getMap(KEY_DUTY_CYCLE);
+            options.activeMs = (long) dutyCycle.getDouble(KEY_ACTIVE_MS);
+            options.idleMs = (long) dutyCycle.getDouble(KEY_IDLE_MS);
+            options.burstMs = dutyCycle.hasKey(KEY_BURST_MS) && !dutyCycle.isNull(KEY_BURST_MS)
+                    ? (long) dutyCycle.getDouble(KEY_BURST_MS)
+                    : options.activeMs;
+        }
+        return options;
+    }
+
+    /**
+     * Whether to browse every enumerated browse domain in parallel instead of the given domain.
+     */
+    public boolean isAllDomains() {
+        return allDomains;
+    }
+
+    /**
+     * The subtype label to browse, e.g. "_printer", so only matching instances are reported.
+     */
+    @Nullable
+    public String getSubtype() {
+        return subtype;
+    }
+
+    public ServiceFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Service names, or name prefixes, to resolve before any other service, in order.
+     */
+    public List<String> getPriority() {
+        return priority;
+    }
+
+    /**
+     * Whether the scan alternates between active and idle windows, see {@link DutyCycle}.
+     */
+    public boolean isDutyCycled() {
+        return activeMs > 0 && idleMs > 0;
+    }
+
+    public DutyCycle newDutyCycle(ScanStats stats, DutyCycle.Listener listener) {
+        return new DutyCycle(activeMs, idleMs, burstMs, stats, listener);
+    }
+}
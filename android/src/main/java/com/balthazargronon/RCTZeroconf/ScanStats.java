@@ -0,0 +1,73 @@
+package com.balthazargronon.RCTZeroconf;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the current scan, reset when a new scan starts. The window counters are only
+ * updated by duty-cycled scans, see {@link DutyCycle}.
+ */
+public class ScanStats {
+
+    private final AtomicInteger found = new AtomicInteger();
+    private final AtomicInteger resolved = new AtomicInteger();
+    private final AtomicInteger filteredByName = new AtomicInteger();
+    private final AtomicInteger filteredByTxt = new AtomicInteger();
+    private final AtomicInteger activeWindows = new AtomicInteger();
+    private final AtomicLong activeMs = new AtomicLong();
+    private final AtomicInteger latencySamples = new AtomicInteger();
+    private final AtomicLong latencyMs = new AtomicLong();
+
+    public void onFound() {
+        found.incrementAndGet();
+    }
+
+    public void onResolved() {
+        resolved.incrementAndGet();
+    }
+
+    public void onFilteredByName() {
+        filteredByName.incrementAndGet();
+    }
+
+    public void onFilteredByTxt() {
+        filteredByTxt.incrementAndGet();
+    }
+
+    public void onActiveWindow(long durationMs) {
+        activeWindows.incrementAndGet();
+        activeMs.addAndGet(durationMs);
+    }
+
+    public void onDiscoveryLatency(long latency) {
+        latencySamples.incrementAndGet();
+        latencyMs.addAndGet(latency);
+    }
+
+    public void reset() {
+        found.set(0);
+        resolved.set(0);
+        filteredByName.set(0);
+        filteredByTxt.set(0);
+        activeWindows.set(0);
+        activeMs.set(0);
+        latencySamples.set(0);
+        latencyMs.set(0);
+    }
+
+    public WritableMap toWritableMap() {
+        WritableMap stats = new WritableNativeMap();
+        stats.putInt("found", found.get());
+        stats.putInt("resolved", resolved.get());
+        stats.putInt("filteredByName", filteredByName.get());
+        stats.putInt("filteredByTxt", filteredByTxt.get());
+        stats.putInt("activeWindows", activeWindows.get());
+        stats.putDouble("activeMs", activeMs.get());
+        int samples = latencySamples.get();
+        stats.putDouble("discoveryLatencyMs", samples > 0 ? latencyMs.get() / (double) samples : 0);
+        return stats;
+    }
+}
@@ -0,0 +1,87 @@
+package com.balthazargronon.RCTZeroconf;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Declarative service filter of a scan, evaluated natively so services that don't match are
+ * neither resolved further nor sent over the bridge. The name is checked as soon as a service
+ * is found, the TXT record once it is resolved.
+ */
+public class ServiceFilter {
+
+    public static final String KEY_NAME = "name";
+    public static final String KEY_TXT_KEYS = "txtKeys";
+    public static final String KEY_TXT_EQUALS = "txtEquals";
+    public static final String KEY_TXT_PREFIX = "txtPrefix";
+
+    @Nullable
+    private Pattern name;
+    private final List<String> txtKeys = new ArrayList<>();
+    private final Map<String, String> txtEquals = new HashMap<>();
+    private final Map<String, String> txtPrefix = new HashMap<>();
+
+    public static ServiceFilter from(@Nullable ReadableMap map) {
+        ServiceFilter filter = new ServiceFilter();
+        if (map == null) {
+            return filter;
+        }
+        if (map.hasKey(KEY_NAME) && !map.isNull(KEY_NAME)) {
+            filter.name = Pattern.compile(map.getString(KEY_NAME));
+        }
+        if (map.hasKey(KEY_TXT_KEYS) && !map.isNull(KEY_TXT_KEYS)) {
+            ReadableArray keys = map.getArray(KEY_TXT_KEYS);
+            for (int i = 0; i < keys.size(); i++) {
+                filter.txtKeys.add(keys.getString(i));
+            }
+        }
+        readStrings(map, KEY_TXT_EQUALS, filter.txtEquals);
+        readStrings(map, KEY_TXT_PREFIX, filter.txtPrefix);
+        return filter;
+    }
+
+    private static void readStrings(ReadableMap map, String key, Map<String, String> into) {
+        if (!map.hasKey(key) || map.isNull(key)) {
+            return;
+        }
+        ReadableMap values = map.getMap(key);
+        ReadableMapKeySetIterator iterator = values.keySetIterator();
+        while (iterator.hasNextKey()) {
+            String txtKey = iterator.nextKey();
+            into.put(txtKey, values.getString(txtKey));
+        }
+    }
+
+    public boolean matchesName(String serviceName) {
+        return name == null || name.matcher(serviceName).find();
+    }
+
+    public boolean matchesTxt(Map<String, String> txt) {
+        for (String key : txtKeys) {
+            if (!txt.containsKey(key)) {
+                return false;
+            }
+        }
+        for (Map.Entry<String, String> entry : txtEquals.entrySet()) {
+            if (!entry.getValue().equals(txt.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        for (Map.Entry<String, String> entry : txtPrefix.entrySet()) {
+            String value = txt.get(entry.getKey());
+            if (value == null || !value.startsWith(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
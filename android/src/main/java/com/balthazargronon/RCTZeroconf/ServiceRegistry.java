@@ -0,0 +1,209 @@
+package com.balthazargronon.RCTZeroconf;
+
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Thread safe registry of the services discovered by one {@link Zeroconf} implementation,
+ * keyed by service name like the JS side.
+ *
+ * @param <T> the implementation specific service object, kept to act on the service later.
+ */
+public class ServiceRegistry<T> {
+
+    public static class Entry<T> {
+        private final String type;
+        private final T source;
+        private final DiscoveredService service;
+        private volatile long lastSeen;
+
+        Entry(String type, T source, DiscoveredService service) {
+            this.type = type;
+            this.source = source;
+            this.service = service;
+            this.lastSeen = SystemClock.elapsedRealtime();
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        @Nullable
+        public T getSource() {
+            return source;
+        }
+
+        public DiscoveredService getService() {
+            return service;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+    }
+
+    public interface ResolvedListener {
+        void onResolved(DiscoveredService service);
+    }
+
+    private static class Waiter {
+        private final String type;
+        private final ResolvedListener listener;
+
+        Waiter(String type, ResolvedListener listener) {
+            this.type = type;
+            this.listener = listener;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final Map<String, List<Waiter>> waiters = new HashMap<>();
+
+    /**
+     * Build the key services are grouped by, e.g. "_http._tcp".
+     */
+    public static String typeKey(String type, String protocol) {
+        return String.format("_%s._%s", type, protocol);
+    }
+
+    /**
+     * Record a service found by a browse. An already resolved entry is kept as is.
+     */
+    public void found(String type, String name, T source) {
+        entries.putIfAbsent(name, new Entry<>(type, source, new DiscoveredService(name)));
+    }
+
+    /**
+     * Record a service replayed from the {@link DiscoveryCache}, it has no source until live
+     * discovery resolves it again.
+     */
+    public void cached(String type, DiscoveredService service) {
+        entries.put(service.getName(), new Entry<T>(type, null, service));
+    }
+
+    public void resolved(String type, T source, DiscoveredService service) {
+        entries.put(service.getName(), new Entry<>(type, source, service));
+
+        List<Waiter> resolvedWaiters = new ArrayList<>();
+        synchronized (waiters) {
+            List<Waiter> nameWaiters = waiters.get(service.getName());
+            if (nameWaiters == null) {
+                return;
+            }
+            Iterator<Waiter> iterator = nameWaiters.iterator();
+            while (iterator.hasNext()) {
+                Waiter waiter = iterator.next();
+                if (waiter.type.equals(type)) {
+                    resolvedWaiters.add(waiter);
+                    iterator.remove();
+                }
+            }
+            if (nameWaiters.isEmpty()) {
+                waiters.remove(service.getName());
+            }
+        }
+        for (Waiter waiter : resolvedWaiters) {
+            waiter.listener.onResolved(service);
+        }
+    }
+
+    /**
+     * @return the service if live discovery resolved it, null otherwise.
+     */
+    @Nullable
+    public DiscoveredService getResolved(String type, String name) {
+        Entry<T> entry = entries.get(name);
+        if (entry == null || !entry.service.isResolved() || entry.service.isCached() || !type.equals(entry.type)) {
+            return null;
+        }
+        return entry.service;
+    }
+
+    /**
+     * Call the listener once the service is resolved, right away if it already is.
+     */
+    public void whenResolved(String type, String name, ResolvedListener listener) {
+        DiscoveredService service;
+        synchronized (waiters) {
+            service = getResolved(type, name);
+            if (service == null) {
+                List<Waiter> nameWaiters = waiters.get(name);
+                if (nameWaiters == null) {
+                    nameWaiters = new ArrayList<>();
+                    waiters.put(name, nameWaiters);
+                }
+                nameWaiters.add(new Waiter(type, listener));
+                return;
+            }
+        }
+        listener.onResolved(service);
+    }
+
+    public void cancel(String name, ResolvedListener listener) {
+        synchronized (waiters) {
+            List<Waiter> nameWaiters = waiters.get(name);
+            if (nameWaiters == null) {
+                return;
+            }
+            Iterator<Waiter> iterator = nameWaiters.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().listener == listener) {
+                    iterator.remove();
+                }
+            }
+            if (nameWaiters.isEmpty()) {
+                waiters.remove(name);
+            }
+        }
+    }
+
+    @Nullable
+    public Entry<T> remove(String name) {
+        return entries.remove(name);
+    }
+
+    @Nullable
+    public Entry<T> get(String name) {
+        return entries.get(name);
+    }
+
+    public void touch(String name) {
+        Entry<T> entry = entries.get(name);
+        if (entry != null) {
+            entry.lastSeen = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public Collection<Entry<T>> entries() {
+        return entries.values();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Serialize the registry, or only the services of the given type, in a single map keyed by name.
+     */
+    public WritableMap toWritableMap(@Nullable String type) {
+        WritableMap services = new WritableNativeMap();
+        for (Entry<T> entry : entries.values()) {
+            if (type == null || type.equals(entry.type)) {
+                services.putMap(entry.service.getName(), entry.service.toWritableMap());
+            }
+        }
+        return services;
+    }
+}
@@ -0,0 +1,73 @@
+package com.balthazargronon.RCTZeroconf;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Deduplicated set of the service types announced on the network, as answered to the
+ * "_services._dns-sd._udp" meta-query, with the number of records announcing each type.
+ */
+public class ServiceTypeSet {
+
+    /** The DNS-SD service type enumeration meta-query (RFC 6763, section 9). */
+    public static final String META_QUERY_TYPE = "_services._dns-sd._udp";
+
+    public static final String KEY_TYPE = "type";
+    public static final String KEY_COUNT = "count";
+
+    private final Map<String, Integer> counts = new TreeMap<>();
+
+    /**
+     * Build the service type, e.g. "_http._tcp", from a meta-query answer where the instance
+     * name is "_http" and the type is "_tcp.local.".
+     */
+    public static String typeOf(String serviceName, String regType) {
+        int dot = regType.indexOf('.');
+        return serviceName + "." + (dot >= 0 ? regType.substring(0, dot) : regType);
+    }
+
+    /**
+     * @return true if the type wasn't in the set yet.
+     */
+    public synchronized boolean add(String type) {
+        Integer count = counts.get(type);
+        counts.put(type, count == null ? 1 : count + 1);
+        return count == null;
+    }
+
+    /**
+     * @return true if the type is no longer announced at all.
+     */
+    public synchronized boolean remove(String type) {
+        Integer count = counts.get(type);
+        if (count == null) {
+            return false;
+        }
+        if (count <= 1) {
+            counts.remove(type);
+            return true;
+        }
+        counts.put(type, count - 1);
+        return false;
+    }
+
+    public synchronized void clear() {
+        counts.clear();
+    }
+
+    public synchronized WritableArray toWritableArray() {
+        WritableArray types = new WritableNativeArray();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            WritableMap type = new WritableNativeMap();
+            type.putString(KEY_TYPE, entry.getKey());
+            type.putInt(KEY_COUNT, entry.getValue());
+            types.pushMap(type);
+        }
+        return types;
+    }
+}
@@ -0,0 +1,55 @@
+package com.balthazargronon.RCTZeroconf;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Thread safe cache whose entries expire after the TTL they were stored with.
+ */
+public class TtlCache<V> {
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    public void put(String key, V value, long ttlMs) {
+        if (ttlMs > 0) {
+            entries.put(key, new Entry<>(value, SystemClock.elapsedRealtime() + ttlMs));
+        }
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it expired.
+     */
+    @Nullable
+    public V get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() >= entry.expiresAt) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public void remove(String key) {
+        entries.remove(key);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+}
@@ -7,6 +7,8 @@ import com.facebook.react.bridge.ReactContext;
 
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -46,4 +48,11 @@ public class ZeroConfImplFactory {
         return zeroconfMap.get(implType);
     }
 
+    /**
+     * The implementations created so far, without creating the others.
+     */
+    public Collection<Zeroconf> getCreatedImpls() {
+        return new ArrayList<>(zeroconfMap.values());
+    }
+
 }
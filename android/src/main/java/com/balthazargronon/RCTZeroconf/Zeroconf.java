@@ -1,14 +1,126 @@
 package com.balthazargronon.RCTZeroconf;
 
+import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
 
 public interface Zeroconf {
 
-    void scan(String type, String protocol, String domain);
+    /** mDNS TTL of SRV and address records (RFC 6762, section 10). */
+    long RESOLVE_CACHE_TTL_MS = 120 * 1000;
+
+    /** How long a host lookup that got no answer is remembered. */
+    long HOST_NEGATIVE_CACHE_TTL_MS = 10 * 1000;
+
+    /** How long live discovery has to confirm the services replayed from the cache. */
+    long CACHE_CONFIRM_WINDOW_MS = 10 * 1000;
+
+    String FAMILY_ANY = "any";
+    String FAMILY_IPV4 = "ipv4";
+    String FAMILY_IPV6 = "ipv6";
+
+    /**
+     * Start browsing, the promise (if any) settles once the browse is actually running.
+     */
+    void scan(String type, String protocol, String domain, ScanOptions options, @Nullable Promise promise);
 
     void stop();
 
+    /**
+     * Called when the module is torn down, after {@link #stop()}. Cancels what outlives a scan,
+     * such as pending {@link #resolveService} calls.
+     */
+    void destroy();
+
+    /**
+     * Whether a scan of the given type key, see {@link ServiceRegistry#typeKey}, is running or paused.
+     */
+    boolean isScanning(String typeKey);
+
     public void unregisterService(String serviceName);
 
-    public void registerService(String type, String protocol, String domain, String name, int port, ReadableMap txt);
+    /**
+     * Publish a service, also under the given subtype labels (e.g. "_printer"). The promise
+     * (if any) settles once it is registered.
+     */
+    public void registerService(String type, String protocol, String domain, String name, int port, ReadableMap txt, List<String> subtypes, @Nullable Promise promise);
+
+    /**
+     * Resolve a service whose name is already known, without browsing for its type first.
+     * Results are cached for {@link #RESOLVE_CACHE_TTL_MS}.
+     */
+    void resolveService(String name, String type, String protocol, String domain, long timeoutMs, Promise promise);
+
+    /**
+     * Look up the addresses of a host name, one of {@link #FAMILY_ANY}, {@link #FAMILY_IPV4}
+     * or {@link #FAMILY_IPV6}. The promise settles with the first answer, further addresses
+     * are sent as {@link ZeroconfModule#EVENT_HOST_ADDRESS} events when {@code stream} is set.
+     */
+    void resolveHost(String hostname, String family, long timeoutMs, boolean stream, Promise promise);
+
+    /**
+     * Browse the service types announced on the network, sending the whole deduplicated set as
+     * {@link ZeroconfModule#EVENT_SERVICE_TYPES} whenever it changes. Runs alongside a scan.
+     */
+    void browseServiceTypes(@Nullable Promise promise);
+
+    void stopBrowseServiceTypes();
+
+    /**
+     * List the domains recommended for browsing, or for registration, answered within
+     * {@code timeoutMs}.
+     */
+    void enumerateDomains(boolean registration, long timeoutMs, Promise promise);
+
+    ScanStats getStats();
+
+    ServiceRegistry<?> getRegistry();
+
+    /**
+     * Serialize the services discovered so far, optionally only those of one type.
+     */
+    WritableMap getServices(@Nullable String type, @Nullable String protocol);
+
+    /**
+     * Called when the app failed to reach a discovered service, so the implementation can
+     * verify it and report it as removed if it is gone.
+     */
+    void reportUnreachable(String serviceName);
+
+    /**
+     * Verify services that haven't been seen for {@code windowMs} milliseconds. 0 disables it.
+     */
+    void setLivenessWindow(long windowMs);
+
+    /**
+     * Called on the main thread when the device joined a network, once it has settled. The
+     * running scan is restarted on it, keeping the discovered services; those not found again
+     * are reported as removed shortly after.
+     * <p>
+     * When {@code switched} the device moved to another network. The services of the previous
+     * network are then reported as removed unless they were also seen on the new one, and the
+     * services last seen on the new network are restored from the discovery cache.
+     */
+    void onNetworkChanged(boolean switched);
+
+    /**
+     * Make a duty-cycled scan active right away, e.g. when the app comes to the foreground.
+     */
+    void burstScan();
+
+    /**
+     * Pause the running scan while the app is in the background, keeping the discovered
+     * services. Registrations keep running.
+     */
+    void pauseInBackground();
+
+    /**
+     * Resume a scan paused by {@link #pauseInBackground()}, the services not found again
+     * shortly after are reported as removed.
+     */
+    void resumeFromBackground();
 }
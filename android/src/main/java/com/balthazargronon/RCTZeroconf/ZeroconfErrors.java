@@ -0,0 +1,59 @@
+package com.balthazargronon.RCTZeroconf;
+
+import android.net.nsd.NsdManager;
+
+import com.github.druk.dnssd.DNSSD;
+import com.github.druk.dnssd.DNSSDException;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Error codes used to reject the promises returned by {@link ZeroconfModule}.
+ * DNS-SD errors are reported as "DNSSD_" followed by the mDNSResponder error name and
+ * NsdManager errors as "NSD_" followed by the failure name.
+ */
+public final class ZeroconfErrors {
+
+    public static final String TIMEOUT = "TIMEOUT";
+    public static final String CANCELLED = "CANCELLED";
+    public static final String NOT_FOUND = "NOT_FOUND";
+    public static final String UNSUPPORTED = "UNSUPPORTED";
+    public static final String NOT_SCANNING = "NOT_SCANNING";
+    public static final String UNKNOWN = "UNKNOWN";
+
+    private ZeroconfErrors() {
+    }
+
+    public static String fromDnssd(int errorCode) {
+        String name = DNSSD.getErrorName(errorCode);
+        return "DNSSD_" + (name != null ? name : String.valueOf(errorCode));
+    }
+
+    public static String fromNsd(int errorCode) {
+        switch (errorCode) {
+            case NsdManager.FAILURE_INTERNAL_ERROR:
+                return "NSD_INTERNAL_ERROR";
+            case NsdManager.FAILURE_ALREADY_ACTIVE:
+                return "NSD_ALREADY_ACTIVE";
+            case NsdManager.FAILURE_MAX_LIMIT:
+                return "NSD_MAX_LIMIT";
+            // Added in API 34, NsdManager constants would be inlined anyway
+            case 5:
+                return "NSD_OPERATION_NOT_RUNNING";
+            case 6:
+                return "NSD_BAD_PARAMETERS";
+            default:
+                return "NSD_" + errorCode;
+        }
+    }
+
+    public static String fromThrowable(Throwable throwable) {
+        if (throwable instanceof TimeoutException) {
+            return TIMEOUT;
+        }
+        if (throwable instanceof DNSSDException) {
+            return fromDnssd(((DNSSDException) throwable).getErrorCode());
+        }
+        return UNKNOWN;
+    }
+}
@@ -1,14 +1,30 @@
 package com.balthazargronon.RCTZeroconf;
 
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import com.facebook.react.bridge.LifecycleEventListener;
+import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.github.druk.dnssd.MulticastLockCoordinator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
@@ -17,7 +33,7 @@ import javax.annotation.Nullable;
  * Created by Jeremy White on 8/1/2016.
  * Copyright © 2016 Balthazar Gronon MIT
  */
-public class ZeroconfModule extends ReactContextBaseJavaModule {
+public class ZeroconfModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
 
     public static final String EVENT_START = "RNZeroconfStart";
     public static final String EVENT_STOP = "RNZeroconfStop";
@@ -28,6 +44,9 @@ public class ZeroconfModule extends ReactContextBaseJavaModule {
 
     public static final String EVENT_PUBLISHED = "RNZeroconfServiceRegistered";
     public static final String EVENT_UNREGISTERED = "RNZeroconfServiceUnregistered";
+    public static final String EVENT_HOST_ADDRESS = "RNZeroconfHostAddress";
+    public static final String EVENT_SERVICE_TYPES = "RNZeroconfServiceTypes";
+    public static final String EVENT_DIFF = "RNZeroconfDiff";
 
     public static final String KEY_SERVICE_NAME = "name";
     public static final String KEY_SERVICE_FULL_NAME = "fullName";
@@ -35,12 +54,56 @@ public class ZeroconfModule extends ReactContextBaseJavaModule {
     public static final String KEY_SERVICE_PORT = "port";
     public static final String KEY_SERVICE_ADDRESSES = "addresses";
     public static final String KEY_SERVICE_TXT = "txt";
+    public static final String KEY_SERVICE_CACHED = "cached";
+    public static final String KEY_HOST_ADDRESS = "address";
+    public static final String KEY_HOST_TTL = "ttl";
+    public static final String KEY_DOMAIN = "domain";
+    public static final String KEY_DOMAIN_DEFAULT = "isDefault";
+
+    public static final String DOMAINS_REGISTRATION = "registration";
+
+    private static final String CACHE_FILE_NAME = "RNZeroconfCache.bin";
 
     private ZeroConfImplFactory zeroConfFactory;
+    private final DiscoveryCache discoveryCache;
+    private final NetworkMonitor networkMonitor;
+    private final EventBuffer eventBuffer = new EventBuffer();
+    private volatile boolean bufferingEvents;
+    private volatile long batchIntervalMs;
+    private volatile boolean compactEvents;
+    private boolean batchFlushScheduled;
+    private final Runnable batchFlush = this::flushBatch;
+    private final AtomicInteger bridgeEvents = new AtomicInteger();
+    private final AtomicInteger batchedEvents = new AtomicInteger();
+    private boolean pauseScansInBackground;
+    private boolean bufferEventsInBackground;
+    private final Handler handler = new Handler(Looper.getMainLooper());
 
     public ZeroconfModule(ReactApplicationContext reactContext) {
         super(reactContext);
+        discoveryCache = new DiscoveryCache(new File(reactContext.getFilesDir(), CACHE_FILE_NAME));
+        discoveryCache.load();
         zeroConfFactory = new ZeroConfImplFactory(this, getReactApplicationContext());
+        networkMonitor = new NetworkMonitor(reactContext, this::onNetworkChanged);
+        networkMonitor.start();
+        reactContext.addLifecycleEventListener(this);
+    }
+
+    /**
+     * Restart the scans on the new network, switching the discovery state to its partition
+     * when it isn't the network they ran on.
+     */
+    private void onNetworkChanged(String networkId) {
+        if (NetworkMonitor.NO_NETWORK.equals(networkId)) {
+            // Keep the discovered services while offline, the next network tells which are gone
+            return;
+        }
+        String previousId = discoveryCache.getNetwork();
+        boolean switched = !NetworkMonitor.NO_NETWORK.equals(previousId) && !previousId.equals(networkId);
+        discoveryCache.setNetwork(networkId);
+        for (Zeroconf zeroconf : zeroConfFactory.getCreatedImpls()) {
+            zeroconf.onNetworkChanged(switched);
+        }
     }
 
     @Override
@@ -49,15 +112,25 @@ public class ZeroconfModule extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void scan(String type, String protocol, String domain, String implType) {
+    public void scan(String type, String protocol, String domain, String implType, @Nullable ReadableMap options) {
         try {
-            getZeroconfImpl(implType).scan(type, protocol, domain);
+            getZeroconfImpl(implType).scan(type, protocol, domain, ScanOptions.from(options), null);
         } catch (Throwable e) {
             Log.e(getClass().getName(), e.getMessage(), e);
             sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, "Exception During Scan: " + e.getMessage());
         }
     }
 
+    @ReactMethod
+    public void scanAsync(String type, String protocol, String domain, String implType, @Nullable ReadableMap options, Promise promise) {
+        try {
+            getZeroconfImpl(implType).scan(type, protocol, domain, ScanOptions.from(options), promise);
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            promise.reject(ZeroconfErrors.fromThrowable(e), "Exception During Scan: " + e.getMessage(), e);
+        }
+    }
+
     @ReactMethod
     public void stop(String implType) {
         try {
@@ -73,15 +146,67 @@ public class ZeroconfModule extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void registerService(String type, String protocol, String domain, String name, int port, ReadableMap txt, String implType) {
+    public void registerService(String type, String protocol, String domain, String name, int port, ReadableMap txt, String implType, @Nullable ReadableArray subtypes) {
         try {
-            getZeroconfImpl(implType).registerService(type, protocol, domain, name, port, txt);
+            getZeroconfImpl(implType).registerService(type, protocol, domain, name, port, txt, toSubtypes(subtypes), null);
         } catch (Throwable e) {
             Log.e(getClass().getName(), e.getMessage(), e);
             sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, "Exception During Register Service: " + e.getMessage());
         }
     }
 
+    @ReactMethod
+    public void registerServiceAsync(String type, String protocol, String domain, String name, int port, ReadableMap txt, String implType, @Nullable ReadableArray subtypes, Promise promise) {
+        try {
+            getZeroconfImpl(implType).registerService(type, protocol, domain, name, port, txt, toSubtypes(subtypes), promise);
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            promise.reject(ZeroconfErrors.fromThrowable(e), "Exception During Register Service: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Resolve with the service once the running scan has resolved it, or right away if it already has.
+     * Without a scan of the type nothing would resolve it, so the promise is rejected at once.
+     */
+    @ReactMethod
+    public void resolveOnce(String name, String type, String protocol, int timeoutMs, String implType, Promise promise) {
+        try {
+            final Zeroconf zeroconf = getZeroconfImpl(implType);
+            final ServiceRegistry<?> registry = zeroconf.getRegistry();
+            final String typeKey = ServiceRegistry.typeKey(type, protocol);
+            if (!zeroconf.isScanning(typeKey)) {
+                DiscoveredService resolved = registry.getResolved(typeKey, name);
+                if (resolved != null) {
+                    promise.resolve(resolved.toWritableMap());
+                } else {
+                    promise.reject(ZeroconfErrors.NOT_SCANNING, "No " + typeKey + " scan is running to resolve " + name);
+                }
+                return;
+            }
+            final AtomicBoolean settled = new AtomicBoolean();
+            final ServiceRegistry.ResolvedListener[] listener = new ServiceRegistry.ResolvedListener[1];
+            final Runnable timeout = () -> {
+                if (settled.compareAndSet(false, true)) {
+                    registry.cancel(name, listener[0]);
+                    promise.reject(ZeroconfErrors.TIMEOUT, "Service " + name + " was not resolved within " + timeoutMs + "ms");
+                }
+            };
+            listener[0] = service -> {
+                if (settled.compareAndSet(false, true)) {
+                    handler.removeCallbacks(timeout);
+                    promise.resolve(service.toWritableMap());
+                }
+            };
+
+            handler.postDelayed(timeout, timeoutMs);
+            registry.whenResolved(typeKey, name, listener[0]);
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            promise.reject(ZeroconfErrors.fromThrowable(e), "Exception During Resolve Once: " + e.getMessage(), e);
+        }
+    }
+
     @ReactMethod
     public void unregisterService(String serviceName, String implType) {
         try {
@@ -92,23 +217,294 @@ public class ZeroconfModule extends ReactContextBaseJavaModule {
         }
     }
 
+    @ReactMethod
+    public void getServices(@Nullable String type, @Nullable String protocol, String implType, Promise promise) {
+        try {
+            promise.resolve(getZeroconfImpl(implType).getServices(type, protocol));
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            promise.reject(ZeroconfErrors.fromThrowable(e), "Exception During Get Services: " + e.getMessage(), e);
+        }
+    }
+
+    @ReactMethod
+    public void resolveService(String name, String type, String protocol, String domain, int timeoutMs, String implType, Promise promise) {
+        try {
+            getZeroconfImpl(implType).resolveService(name, type, protocol, domain, timeoutMs, promise);
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            promise.reject(ZeroconfErrors.fromThrowable(e), "Exception During Resolve Service: " + e.getMessage(), e);
+        }
+    }
+
+    @ReactMethod
+    public void resolveHost(String hostname, String family, int timeoutMs, boolean stream, String implType, Promise promise) {
+        try {
+            getZeroconfImpl(implType).resolveHost(hostname, family, timeoutMs, stream, promise);
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            promise.reject(ZeroconfErrors.fromThrowable(e), "Exception During Resolve Host: " + e.getMessage(), e);
+        }
+    }
+
+    @ReactMethod
+    public void browseServiceTypes(String implType, Promise promise) {
+        try {
+            getZeroconfImpl(implType).browseServiceTypes(promise);
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            promise.reject(ZeroconfErrors.fromThrowable(e), "Exception During Browse Service Types: " + e.getMessage(), e);
+        }
+    }
+
+    @ReactMethod
+    public void stopBrowseServiceTypes(String implType) {
+        try {
+            getZeroconfImpl(implType).stopBrowseServiceTypes();
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, "Exception During Stop Browse Service Types: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void enumerateDomains(String kind, int timeoutMs, String implType, Promise promise) {
+        try {
+            getZeroconfImpl(implType).enumerateDomains(DOMAINS_REGISTRATION.equals(kind), timeoutMs, promise);
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            promise.reject(ZeroconfErrors.fromThrowable(e), "Exception During Enumerate Domains: " + e.getMessage(), e);
+        }
+    }
+
+    @ReactMethod
+    public void getStats(String implType, Promise promise) {
+        try {
+            WritableMap stats = getZeroconfImpl(implType).getStats().toWritableMap();
+            // The multicast lock is shared by both implementations
+            MulticastLockCoordinator multicastLock = MulticastLockCoordinator.getInstance(getReactApplicationContext());
+            stats.putBoolean("multicastLockHeld", multicastLock.isHeld());
+            stats.putInt("multicastLockAcquisitions", multicastLock.getAcquisitions());
+            stats.putDouble("multicastLockHeldMs", multicastLock.getHeldTimeMs());
+            // Bridge traffic of both implementations, to compare with and without batching
+            stats.putInt("bridgeEvents", bridgeEvents.get());
+            stats.putInt("batchedEvents", batchedEvents.get());
+            promise.resolve(stats);
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            promise.reject(ZeroconfErrors.fromThrowable(e), "Exception During Get Stats: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Send the found, resolved and removed services as one consolidated diff every
+     * {@code intervalMs} instead of one event each. 0 sends every event right away. With
+     * {@code compact}, the resolved services of a diff are packed by
+     * {@link CompactServiceEncoder}, which is smaller and faster to send for large batches.
+     */
+    @ReactMethod
+    public void setEventBatching(int intervalMs, boolean compact) {
+        compactEvents = compact;
+        batchIntervalMs = Math.max(0, intervalMs);
+        if (batchIntervalMs == 0) {
+            handler.removeCallbacks(batchFlush);
+            flushBatch();
+        }
+    }
+
+    /**
+     * Choose what happens while the app is in the background: pausing the scans, which keeps
+     * the registrations and the discovered services, and holding back the events until the
+     * app resumes, when they are sent as one consolidated diff.
+     */
+    @ReactMethod
+    public void setBackgroundPolicy(boolean pauseScans, boolean bufferEvents) {
+        pauseScansInBackground = pauseScans;
+        bufferEventsInBackground = bufferEvents;
+    }
+
+    /**
+     * Persist resolved services across app restarts, so scans replay them right away.
+     */
+    @ReactMethod
+    public void setPersistentCache(boolean enabled, int maxEntries) {
+        discoveryCache.setEnabled(enabled, maxEntries);
+    }
+
+    public DiscoveryCache getDiscoveryCache() {
+        return discoveryCache;
+    }
+
+    @ReactMethod
+    public void reportUnreachable(String serviceName, String implType) {
+        try {
+            getZeroconfImpl(implType).reportUnreachable(serviceName);
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, "Exception During Report Unreachable: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void setLivenessWindow(int windowMs, String implType) {
+        try {
+            getZeroconfImpl(implType).setLivenessWindow(windowMs);
+        } catch (Throwable e) {
+            Log.e(getClass().getName(), e.getMessage(), e);
+            sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, "Exception During Set Liveness Window: " + e.getMessage());
+        }
+    }
+
     public void sendEvent(ReactContext reactContext,
                           String eventName,
                           @Nullable Object params) {
-        reactContext
+        if (bufferingEvents || batchIntervalMs > 0) {
+            synchronized (eventBuffer) {
+                if (bufferingEvents) {
+                    eventBuffer.add(eventName, params);
+                    return;
+                }
+                if (batchIntervalMs > 0) {
+                    if (EventBuffer.isServiceEvent(eventName)) {
+                        batchedEvents.incrementAndGet();
+                        eventBuffer.add(eventName, params);
+                        if (!batchFlushScheduled) {
+                            batchFlushScheduled = true;
+                            handler.postDelayed(batchFlush, batchIntervalMs);
+                        }
+                        return;
+                    }
+                    // Keep the order, the pending services go first
+                    eventBuffer.flush(this::emitEvent, compactEvents);
+                }
+            }
+        }
+        emitEvent(eventName, params);
+    }
+
+    /**
+     * Send the events of one network burst, found, resolved or removed services, as a single
+     * diff unless there is only one. Held back and batched events are folded as usual.
+     */
+    public void sendServiceEvents(String eventName, List<?> params) {
+        if (params.size() == 1 || bufferingEvents || batchIntervalMs > 0) {
+            for (Object param : params) {
+                sendEvent(getReactApplicationContext(), eventName, param);
+            }
+            return;
+        }
+        if (params.isEmpty()) {
+            return;
+        }
+        EventBuffer burst = new EventBuffer();
+        for (Object param : params) {
+            burst.add(eventName, param);
+        }
+        burst.flush(this::emitEvent, compactEvents);
+    }
+
+    private void emitEvent(String eventName, @Nullable Object params) {
+        if (params instanceof DiscoveredService) {
+            params = ((DiscoveredService) params).toWritableMap();
+        }
+        bridgeEvents.incrementAndGet();
+        getReactApplicationContext()
                 .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
                 .emit(eventName, params);
     }
 
+    private void flushBatch() {
+        synchronized (eventBuffer) {
+            batchFlushScheduled = false;
+            if (!bufferingEvents) {
+                eventBuffer.flush(this::emitEvent, compactEvents);
+            }
+        }
+    }
+
+    /**
+     * Normalize a subtype to its DNS-SD label, e.g. "printer" to "_printer".
+     */
+    public static String subtypeLabel(String subtype) {
+        return subtype.startsWith("_") ? subtype : "_" + subtype;
+    }
+
+    private static List<String> toSubtypes(@Nullable ReadableArray subtypes) {
+        List<String> labels = new ArrayList<>();
+        if (subtypes != null) {
+            for (int i = 0; i < subtypes.size(); i++) {
+                labels.add(subtypeLabel(subtypes.getString(i)));
+            }
+        }
+        return labels;
+    }
+
+    public static WritableMap domainToMap(String domain, boolean isDefault) {
+        WritableMap map = new WritableNativeMap();
+        map.putString(KEY_DOMAIN, domain);
+        map.putBoolean(KEY_DOMAIN_DEFAULT, isDefault);
+        return map;
+    }
+
+    public static WritableMap hostToMap(String hostname, List<String> addresses) {
+        WritableMap host = new WritableNativeMap();
+        host.putString(KEY_SERVICE_HOST, hostname);
+
+        WritableArray addressArray = new WritableNativeArray();
+        for (String address : addresses) {
+            addressArray.pushString(address);
+        }
+        host.putArray(KEY_SERVICE_ADDRESSES, addressArray);
+        return host;
+    }
+
+    @Override
+    public void onHostResume() {
+        synchronized (eventBuffer) {
+            if (bufferingEvents) {
+                bufferingEvents = false;
+                eventBuffer.flush(this::emitEvent, compactEvents);
+            }
+        }
+        for (Zeroconf zeroconf : zeroConfFactory.getCreatedImpls()) {
+            zeroconf.resumeFromBackground();
+            zeroconf.burstScan();
+        }
+    }
+
+    @Override
+    public void onHostPause() {
+        if (bufferEventsInBackground) {
+            bufferingEvents = true;
+        }
+        if (pauseScansInBackground) {
+            for (Zeroconf zeroconf : zeroConfFactory.getCreatedImpls()) {
+                zeroconf.pauseInBackground();
+            }
+        }
+    }
+
+    @Override
+    public void onHostDestroy() {
+    }
+
     @Override
     public void onCatalystInstanceDestroy() {
         super.onCatalystInstanceDestroy();
+        networkMonitor.stop();
+        getReactApplicationContext().removeLifecycleEventListener(this);
         try {
             stop(ZeroConfImplFactory.NSD_IMPL);
             stop(ZeroConfImplFactory.DNSSD_IMPL);
+            stopBrowseServiceTypes(ZeroConfImplFactory.NSD_IMPL);
+            stopBrowseServiceTypes(ZeroConfImplFactory.DNSSD_IMPL);
+            for (Zeroconf zeroconf : zeroConfFactory.getCreatedImpls()) {
+                zeroconf.destroy();
+            }
         } catch (Throwable e) {
             Log.e(getClass().getName(), e.getMessage(), e);
             sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, "Exception During Catalyst Destroy: " + e.getMessage());
         }
+        discoveryCache.close();
     }
 }
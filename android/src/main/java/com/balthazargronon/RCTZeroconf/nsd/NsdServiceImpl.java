@@ -1,14 +1,28 @@
 package com.balthazargronon.RCTZeroconf.nsd;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.net.nsd.NsdManager;
 import android.net.nsd.NsdServiceInfo;
-import android.net.wifi.WifiManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
 
+import com.balthazargronon.RCTZeroconf.DiscoveredService;
+import com.balthazargronon.RCTZeroconf.DutyCycle;
+import com.balthazargronon.RCTZeroconf.ResolveQueue;
+import com.balthazargronon.RCTZeroconf.ScanOptions;
+import com.balthazargronon.RCTZeroconf.ScanStats;
+import com.balthazargronon.RCTZeroconf.ServiceFilter;
+import com.balthazargronon.RCTZeroconf.ServiceRegistry;
+import com.balthazargronon.RCTZeroconf.ServiceTypeSet;
+import com.balthazargronon.RCTZeroconf.TtlCache;
 import com.balthazargronon.RCTZeroconf.Zeroconf;
+import com.balthazargronon.RCTZeroconf.ZeroconfErrors;
 import com.balthazargronon.RCTZeroconf.ZeroconfModule;
+import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 
 import com.facebook.react.bridge.ReadableMap;
@@ -17,107 +31,629 @@ import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeArray;
 import com.facebook.react.bridge.WritableNativeMap;
+import com.github.druk.dnssd.MulticastLockCoordinator;
 
 import java.io.UnsupportedEncodingException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.observers.DisposableSingleObserver;
+import io.reactivex.schedulers.Schedulers;
 
 public class NsdServiceImpl implements Zeroconf {
+    private static final String TAG = "NsdServiceImpl";
+    // NsdManager runs a single resolve at a time before Android 14, one that finds it busy is
+    // retried after RESOLVE_RETRY_DELAY_MS, doubled on every attempt
+    private static final long RESOLVE_RETRY_DELAY_MS = 100;
+    private static final int MAX_RESOLVE_RETRIES = 6;
+
     private NsdManager mNsdManager;
-    private NsdManager.DiscoveryListener mDiscoveryListener;
-    private WifiManager.MulticastLock multicastLock;
+    private ScanDiscoveryListener mDiscoveryListener;
+    private NsdManager.DiscoveryListener mTypesDiscoveryListener;
+    private MulticastLockCoordinator multicastLock;
+    private boolean scanHoldsMulticastLock;
+    private boolean typesHoldMulticastLock;
     private Map<String, NsdManager.RegistrationListener> mPublishedServices;
+    private ServiceRegistry<NsdServiceInfo> mServices;
+    private final TtlCache<DiscoveredService> mResolveCache = new TtlCache<>();
+    private final TtlCache<List<String>> mHostCache = new TtlCache<>();
+    private final ServiceTypeSet mServiceTypes = new ServiceTypeSet();
+    private final Set<TargetedResolveListener> mTargetedResolves = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final CompositeDisposable mHostLookupDisposables = new CompositeDisposable();
+    private final ScanStats mStats = new ScanStats();
+    private ServiceFilter mFilter = ServiceFilter.from(null);
+    // NsdManager only runs one resolve at a time before Android 14, reachability checks share it
+    private final ResolveQueue<QueuedResolve> mResolveQueue =
+            new ResolveQueue<>(1, (queued, done) -> getNsdManager().resolveService(queued.serviceInfo,
+                    queued.reachability ? new ReachabilityResolveListener(done) : new ZeroResolveListener(done)));
+    private String mServiceType;
+    private String mDiscoveryType;
+    @Nullable
+    private DutyCycle mDutyCycle;
+    private boolean mScanPaused;
+    private boolean mBackgroundPaused;
+    private final DutyCycle.Listener mDutyCycleListener = new DutyCycle.Listener() {
+        @Override
+        public void onActive() {
+            resumeScan();
+        }
+
+        @Override
+        public void onIdle(long activeSince) {
+            pauseScan();
+            expireServices(activeSince);
+        }
+    };
+    @Nullable
+    private Promise mScanPromise;
     private ZeroconfModule zeroconfModule;
     private ReactApplicationContext reactApplicationContext;
 
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable livenessCheck = this::checkLiveness;
+    private final Runnable serviceConfirmation = this::confirmServices;
+    private long livenessWindow;
+    // Services not seen since then are removed by the confirmation, set when the scan restarts
+    private long mConfirmSince;
+
     public NsdServiceImpl(ZeroconfModule zeroconfModule, ReactApplicationContext reactApplicationContext) {
         this.zeroconfModule = zeroconfModule;
         this.reactApplicationContext = reactApplicationContext;
         mPublishedServices = new HashMap<String, NsdManager.RegistrationListener>();
+        mServices = new ServiceRegistry<NsdServiceInfo>();
     }
 
     @Override
-    public void scan(String type, String protocol, String domain) {
+    public void scan(String type, String protocol, String domain, ScanOptions options, @Nullable Promise promise) {
         if (mNsdManager == null) {
             mNsdManager = (NsdManager) getReactApplicationContext().getSystemService(Context.NSD_SERVICE);
         }
 
         this.stop();
+        mServices.clear();
+        mConfirmSince = 0;
+        mServiceType = ServiceRegistry.typeKey(type, protocol);
+        mFilter = options.getFilter();
+        mResolveQueue.setPriority(options.getPriority());
+        mStats.reset();
+        setScanPromise(promise);
+        if (zeroconfModule.getDiscoveryCache().isEnabled()) {
+            replayCachedServices(mServiceType);
+        }
 
-        if (multicastLock == null) {
-            @SuppressLint("WifiManagerLeak") WifiManager wifi = (WifiManager) getReactApplicationContext().getSystemService(Context.WIFI_SERVICE);
-            multicastLock = wifi.createMulticastLock("multicastLock");
-            multicastLock.setReferenceCounted(true);
-            multicastLock.acquire();
+        if (!scanHoldsMulticastLock) {
+            getMulticastLock().acquire();
+            scanHoldsMulticastLock = true;
+        }
+
+
+        String serviceType = String.format("_%s._%s.", type, protocol);
+        if (options.getSubtype() != null) {
+            serviceType = options.getSubtype() + "._sub." + serviceType;
+        }
+        mDiscoveryType = serviceType;
+        mDiscoveryListener = new ScanDiscoveryListener(false);
+        mNsdManager.discoverServices(serviceType, NsdManager.PROTOCOL_DNS_SD, mDiscoveryListener);
+        if (options.isDutyCycled()) {
+            mDutyCycle = options.newDutyCycle(mStats, mDutyCycleListener);
+            mDutyCycle.start();
+        }
+        if (livenessWindow > 0) {
+            handler.postDelayed(livenessCheck, livenessWindow);
         }
+    }
+
+    @Override
+    public void stop() {
+        Promise scanPromise = setScanPromise(null);
+        if (scanPromise != null) {
+            scanPromise.reject(ZeroconfErrors.CANCELLED, "Scan was stopped before it started");
+        }
+
+        if (mDutyCycle != null) {
+            mDutyCycle.stop();
+            mDutyCycle = null;
+        }
+        mBackgroundPaused = false;
+        mResolveQueue.clear();
+        handler.removeCallbacks(serviceConfirmation);
+        handler.removeCallbacks(livenessCheck);
+
+        if (mDiscoveryListener != null) {
+            if (mScanPaused) {
+                // The discovery is already stopped, its listener won't report it again
+                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_STOP, null);
+            } else {
+                mNsdManager.stopServiceDiscovery(mDiscoveryListener);
+            }
+        }
+        mScanPaused = false;
+
+        if (scanHoldsMulticastLock) {
+            getMulticastLock().release();
+            scanHoldsMulticastLock = false;
+        }
+
+        mDiscoveryListener = null;
+    }
+
+    @Override
+    public void destroy() {
+        for (TargetedResolveListener listener : mTargetedResolves) {
+            listener.cancel();
+        }
+        mHostLookupDisposables.clear();
+        // Drops the resolve retries still waiting for their backoff
+        handler.removeCallbacksAndMessages(null);
+    }
+
+    @Override
+    public boolean isScanning(String typeKey) {
+        return mDiscoveryListener != null && typeKey.equals(mServiceType);
+    }
+
+    /**
+     * Replace the promise of the pending scan, returning the previous one.
+     */
+    @Nullable
+    private synchronized Promise setScanPromise(@Nullable Promise promise) {
+        Promise previous = mScanPromise;
+        mScanPromise = promise;
+        return previous;
+    }
+
+    @Override
+    public void resolveService(String name, String type, String protocol, String domain, long timeoutMs, Promise promise) {
+        // NsdManager only works on the local domain, so the domain is ignored
+        String serviceType = String.format("_%s._%s.", type, protocol);
+        String cacheKey = name + "." + serviceType;
+
+        DiscoveredService cached = mResolveCache.get(cacheKey);
+        if (cached != null) {
+            promise.resolve(cached.toWritableMap());
+            return;
+        }
+
+        NsdServiceInfo serviceInfo = new NsdServiceInfo();
+        serviceInfo.setServiceName(name);
+        serviceInfo.setServiceType(serviceType);
+
+        TargetedResolveListener listener = new TargetedResolveListener(cacheKey, promise);
+        mTargetedResolves.add(listener);
+        getMulticastLock().acquire();
+        handler.postDelayed(listener.timeout, timeoutMs);
+        getNsdManager().resolveService(serviceInfo, listener);
+    }
+
+    /**
+     * NsdManager has no address query, so this goes through the system resolver, which
+     * answers .local names over mDNS on recent Android versions. It doesn't expose record
+     * TTLs, so answers are cached for {@link #RESOLVE_CACHE_TTL_MS}, and come all at once.
+     */
+    @Override
+    public void resolveHost(String hostname, String family, long timeoutMs, boolean stream, Promise promise) {
+        String cacheKey = family + ":" + hostname;
+
+        List<String> cached = mHostCache.get(cacheKey);
+        if (cached != null) {
+            if (cached.isEmpty()) {
+                promise.reject(ZeroconfErrors.NOT_FOUND, "No address found for host: " + hostname);
+            } else {
+                promise.resolve(ZeroconfModule.hostToMap(hostname, cached));
+            }
+            return;
+        }
+
+        mHostLookupDisposables.add(Single.fromCallable(() -> {
+                    List<String> addresses = new ArrayList<>();
+                    for (InetAddress address : InetAddress.getAllByName(hostname)) {
+                        if ((address instanceof Inet4Address && !FAMILY_IPV6.equals(family))
+                                || (address instanceof Inet6Address && !FAMILY_IPV4.equals(family))) {
+                            addresses.add(address.getHostAddress());
+                        }
+                    }
+                    return addresses;
+                })
+                .timeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .doOnDispose(() -> promise.reject(ZeroconfErrors.CANCELLED, "Resolving host was cancelled"))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeWith(new DisposableSingleObserver<List<String>>() {
+                    @Override
+                    public void onSuccess(List<String> addresses) {
+                        mHostLookupDisposables.delete(this);
+                        if (addresses.isEmpty()) {
+                            mHostCache.put(cacheKey, Collections.<String>emptyList(), HOST_NEGATIVE_CACHE_TTL_MS);
+                            promise.reject(ZeroconfErrors.NOT_FOUND, "No address found for host: " + hostname);
+                            return;
+                        }
+                        mHostCache.put(cacheKey, addresses, RESOLVE_CACHE_TTL_MS);
+                        promise.resolve(ZeroconfModule.hostToMap(hostname, addresses));
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        mHostLookupDisposables.delete(this);
+                        if (throwable instanceof UnknownHostException) {
+                            mHostCache.put(cacheKey, Collections.<String>emptyList(), HOST_NEGATIVE_CACHE_TTL_MS);
+                            promise.reject(ZeroconfErrors.NOT_FOUND, "No address found for host: " + hostname);
+                        } else {
+                            promise.reject(ZeroconfErrors.fromThrowable(throwable), "Resolving host failed: " + throwable.getMessage(), throwable);
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * Not every NsdManager version answers the meta-query, on those the set stays empty.
+     */
+    @Override
+    public void browseServiceTypes(@Nullable Promise promise) {
+        stopBrowseServiceTypes();
+        mServiceTypes.clear();
+
+        if (!typesHoldMulticastLock) {
+            getMulticastLock().acquire();
+            typesHoldMulticastLock = true;
+        }
+
+        mTypesDiscoveryListener = new NsdManager.DiscoveryListener() {
+            @Nullable
+            private Promise pendingPromise = promise;
 
-        mDiscoveryListener = new NsdManager.DiscoveryListener() {
             @Override
             public void onStartDiscoveryFailed(String serviceType, int errorCode) {
-                String error = "Starting service discovery failed with code: " + errorCode;
+                String error = "Starting service type discovery failed with code: " + errorCode;
                 zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, error);
+
+                if (pendingPromise != null) {
+                    pendingPromise.reject(ZeroconfErrors.fromNsd(errorCode), error);
+                    pendingPromise = null;
+                }
             }
 
             @Override
             public void onStopDiscoveryFailed(String serviceType, int errorCode) {
-                String error = "Stopping service discovery failed with code: " + errorCode;
+                String error = "Stopping service type discovery failed with code: " + errorCode;
                 zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, error);
             }
 
             @Override
             public void onDiscoveryStarted(String serviceType) {
-                System.out.println("On Discovery Started");
-                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_START, null);
+                if (pendingPromise != null) {
+                    pendingPromise.resolve(null);
+                    pendingPromise = null;
+                }
             }
 
             @Override
             public void onDiscoveryStopped(String serviceType) {
-                System.out.println("On Discovery Stopped");
-                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_STOP, null);
             }
 
             @Override
             public void onServiceFound(NsdServiceInfo serviceInfo) {
-                System.out.println("On Service Found");
-                WritableMap service = new WritableNativeMap();
-                service.putString(ZeroconfModule.KEY_SERVICE_NAME, serviceInfo.getServiceName());
-
-                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_FOUND, service);
-                mNsdManager.resolveService(serviceInfo, new NsdServiceImpl.ZeroResolveListener());
+                mServiceTypes.add(ServiceTypeSet.typeOf(serviceInfo.getServiceName(), serviceInfo.getServiceType()));
+                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_SERVICE_TYPES, mServiceTypes.toWritableArray());
             }
 
             @Override
             public void onServiceLost(NsdServiceInfo serviceInfo) {
-                System.out.println("On Service Lost");
-                WritableMap service = new WritableNativeMap();
-                service.putString(ZeroconfModule.KEY_SERVICE_NAME, serviceInfo.getServiceName());
-                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_REMOVE, service);
+                mServiceTypes.remove(ServiceTypeSet.typeOf(serviceInfo.getServiceName(), serviceInfo.getServiceType()));
+                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_SERVICE_TYPES, mServiceTypes.toWritableArray());
             }
         };
 
-        String serviceType = String.format("_%s._%s.", type, protocol);
-        mNsdManager.discoverServices(serviceType, NsdManager.PROTOCOL_DNS_SD, mDiscoveryListener);
+        getNsdManager().discoverServices(ServiceTypeSet.META_QUERY_TYPE + ".", NsdManager.PROTOCOL_DNS_SD, mTypesDiscoveryListener);
     }
 
     @Override
-    public void stop() {
-        if (mDiscoveryListener != null) {
-            mNsdManager.stopServiceDiscovery(mDiscoveryListener);
+    public void stopBrowseServiceTypes() {
+        if (mTypesDiscoveryListener != null) {
+            getNsdManager().stopServiceDiscovery(mTypesDiscoveryListener);
         }
 
-        if (multicastLock != null) {
-            multicastLock.release();
+        if (typesHoldMulticastLock) {
+            getMulticastLock().release();
+            typesHoldMulticastLock = false;
         }
 
-        mDiscoveryListener = null;
-        multicastLock = null;
+        mTypesDiscoveryListener = null;
+    }
+
+    /**
+     * NsdManager only works on the local domain.
+     */
+    @Override
+    public void enumerateDomains(boolean registration, long timeoutMs, Promise promise) {
+        WritableArray domains = new WritableNativeArray();
+        domains.pushMap(ZeroconfModule.domainToMap("local.", true));
+        promise.resolve(domains);
+    }
+
+    @Override
+    public ScanStats getStats() {
+        return mStats;
+    }
+
+    @Override
+    public ServiceRegistry<NsdServiceInfo> getRegistry() {
+        return mServices;
+    }
+
+    @Override
+    public WritableMap getServices(String type, String protocol) {
+        return mServices.toWritableMap(type != null ? ServiceRegistry.typeKey(type, protocol) : null);
+    }
+
+    /**
+     * NsdManager can't ask the daemon to reconfirm records, so the closest we can do is to
+     * resolve the service again and report it as removed if that fails.
+     */
+    @Override
+    public void reportUnreachable(String serviceName) {
+        ServiceRegistry.Entry<NsdServiceInfo> entry = mServices.get(serviceName);
+        if (entry == null || entry.getSource() == null) {
+            return;
+        }
+
+        mServices.touch(serviceName);
+        mResolveQueue.add(serviceName, new QueuedResolve(entry.getSource(), true));
+    }
+
+    /**
+     * Send the cached services of the type as resolved right away, live discovery then has
+     * {@link #CACHE_CONFIRM_WINDOW_MS} to confirm them.
+     */
+    private void replayCachedServices(String typeKey) {
+        for (DiscoveredService cached : zeroconfModule.getDiscoveryCache().get(typeKey)) {
+            if (!mFilter.matchesName(cached.getName()) || !mFilter.matchesTxt(cached.getTxt())) {
+                continue;
+            }
+            DiscoveredService service = cached.asCached();
+            mServices.cached(typeKey, service);
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_RESOLVE, service);
+        }
+        handler.postDelayed(serviceConfirmation, CACHE_CONFIRM_WINDOW_MS);
+    }
+
+    /**
+     * Remove the services live discovery hasn't confirmed, either replayed from the cache or
+     * not seen again since the scan restarted.
+     */
+    private void confirmServices() {
+        for (ServiceRegistry.Entry<NsdServiceInfo> entry : mServices.entries()) {
+            if (!entry.getService().isCached() && entry.getLastSeen() >= mConfirmSince) {
+                continue;
+            }
+            String name = entry.getService().getName();
+            mServices.remove(name);
+            zeroconfModule.getDiscoveryCache().remove(entry.getType(), name);
+
+            WritableMap service = new WritableNativeMap();
+            service.putString(ZeroconfModule.KEY_SERVICE_NAME, name);
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_REMOVE, service);
+        }
+    }
+
+    @Override
+    public void onNetworkChanged(boolean switched) {
+        boolean scanning = mDiscoveryListener != null;
+        if (switched) {
+            switchNetwork(scanning);
+        }
+        if (scanning && !mBackgroundPaused) {
+            restartScan();
+            if (mDutyCycle != null) {
+                mDutyCycle.burst();
+            }
+        }
+    }
+
+    /**
+     * Discover again on the new network without clearing the discovered services, the ones
+     * not found again within {@link #CACHE_CONFIRM_WINDOW_MS} are removed. Registrations are
+     * left to the system daemon, which announces them on the new network by itself.
+     */
+    private void restartScan() {
+        if (!mScanPaused) {
+            pauseScan();
+        }
+        resumeScan();
+
+        mConfirmSince = SystemClock.elapsedRealtime();
+        handler.removeCallbacks(serviceConfirmation);
+        handler.postDelayed(serviceConfirmation, CACHE_CONFIRM_WINDOW_MS);
+    }
+
+    /**
+     * Stop discovering without reporting the scan as stopped, the discovered services are
+     * kept and the multicast lock is returned until the scan resumes.
+     */
+    private void pauseScan() {
+        mResolveQueue.clear();
+        mDiscoveryListener.restarting = true;
+        mNsdManager.stopServiceDiscovery(mDiscoveryListener);
+        mScanPaused = true;
+        if (scanHoldsMulticastLock) {
+            getMulticastLock().release();
+            scanHoldsMulticastLock = false;
+        }
+    }
+
+    private void resumeScan() {
+        if (!mScanPaused) {
+            return;
+        }
+        mScanPaused = false;
+        if (!scanHoldsMulticastLock) {
+            getMulticastLock().acquire();
+            scanHoldsMulticastLock = true;
+        }
+        mDiscoveryListener = new ScanDiscoveryListener(true);
+        mNsdManager.discoverServices(mDiscoveryType, NsdManager.PROTOCOL_DNS_SD, mDiscoveryListener);
+    }
+
+    /**
+     * Replace the services of the previous network with those last seen on the new one.
+     */
+    private void switchNetwork(boolean scanning) {
+        handler.removeCallbacks(serviceConfirmation);
+        Set<String> restored = new HashSet<>();
+        if (scanning) {
+            for (DiscoveredService cached : zeroconfModule.getDiscoveryCache().get(mServiceType)) {
+                if (mFilter.matchesName(cached.getName()) && mFilter.matchesTxt(cached.getTxt())) {
+                    restored.add(cached.getName());
+                }
+            }
+        }
+        for (ServiceRegistry.Entry<NsdServiceInfo> entry : mServices.entries()) {
+            String name = entry.getService().getName();
+            if (restored.contains(name)) {
+                continue;
+            }
+            WritableMap service = new WritableNativeMap();
+            service.putString(ZeroconfModule.KEY_SERVICE_NAME, name);
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_REMOVE, service);
+        }
+        mServices.clear();
+
+        if (scanning) {
+            replayCachedServices(mServiceType);
+        }
+    }
+
+    @Override
+    public void pauseInBackground() {
+        if (mDiscoveryListener == null || mBackgroundPaused) {
+            return;
+        }
+        mBackgroundPaused = true;
+        if (mDutyCycle != null) {
+            mDutyCycle.stop();
+        }
+        if (!mScanPaused) {
+            pauseScan();
+        }
+    }
+
+    @Override
+    public void resumeFromBackground() {
+        if (!mBackgroundPaused) {
+            return;
+        }
+        mBackgroundPaused = false;
+        restartScan();
+        if (mDutyCycle != null) {
+            mDutyCycle.start();
+        }
+    }
+
+    @Override
+    public void burstScan() {
+        if (mDutyCycle != null) {
+            mDutyCycle.burst();
+        }
     }
 
+    /**
+     * Remove the services not seen during the last active window of a duty-cycled scan whose
+     * records would have expired by now, the others are kept through the idle window.
+     */
+    private void expireServices(long activeSince) {
+        long now = SystemClock.elapsedRealtime();
+        for (ServiceRegistry.Entry<NsdServiceInfo> entry : mServices.entries()) {
+            long lastSeen = entry.getLastSeen();
+            if (lastSeen >= activeSince || now - lastSeen < RESOLVE_CACHE_TTL_MS) {
+                continue;
+            }
+            String name = entry.getService().getName();
+            mServices.remove(name);
+            zeroconfModule.getDiscoveryCache().remove(entry.getType(), name);
+
+            WritableMap service = new WritableNativeMap();
+            service.putString(ZeroconfModule.KEY_SERVICE_NAME, name);
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_REMOVE, service);
+        }
+    }
+
+    /**
+     * The check runs while a scan is running, it starts with the next scan otherwise.
+     */
     @Override
-    public void registerService(String type, String protocol, String domain, String name, int port, ReadableMap txt) {
+    public void setLivenessWindow(long windowMs) {
+        livenessWindow = windowMs;
+        handler.removeCallbacks(livenessCheck);
+        if (livenessWindow > 0 && mDiscoveryListener != null) {
+            handler.postDelayed(livenessCheck, livenessWindow);
+        }
+    }
+
+    private void checkLiveness() {
+        if (livenessWindow <= 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        for (ServiceRegistry.Entry<NsdServiceInfo> entry : mServices.entries()) {
+            if (now - entry.getLastSeen() < livenessWindow || entry.getSource() == null) {
+                continue;
+            }
+            // Behind the discovered services, so the checks don't hold up their resolves
+            String name = entry.getService().getName();
+            mServices.touch(name);
+            mResolveQueue.addLast(name, new QueuedResolve(entry.getSource(), true));
+        }
+        handler.postDelayed(livenessCheck, livenessWindow);
+    }
+
+    /**
+     * Resolve again later after a {@link NsdManager#FAILURE_ALREADY_ACTIVE}, backing off so
+     * the retries don't compete with the resolve that is running.
+     *
+     * @param attempt the number of retries so far.
+     * @return false once {@link #MAX_RESOLVE_RETRIES} is reached, nothing is retried then.
+     */
+    private boolean retryResolve(NsdServiceInfo serviceInfo, NsdManager.ResolveListener listener, int attempt) {
+        if (attempt >= MAX_RESOLVE_RETRIES) {
+            return false;
+        }
+        handler.postDelayed(() -> getNsdManager().resolveService(serviceInfo, listener), RESOLVE_RETRY_DELAY_MS << attempt);
+        return true;
+    }
+
+    @Override
+    public void registerService(String type, String protocol, String domain, String name, int port, ReadableMap txt, List<String> subtypes, @Nullable Promise promise) {
         String serviceType = String.format("_%s._%s.", type, protocol);
+        if (!subtypes.isEmpty()) {
+            // NsdManager takes subtypes in the "_http._tcp,_printer" form since Android 14, older
+            // versions would reject it or register the comma as part of the type
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+                String error = "Registering subtypes with NSD requires Android 14, use DNSSD instead";
+                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, error);
+                if (promise != null) {
+                    promise.reject(ZeroconfErrors.UNSUPPORTED, error);
+                }
+                return;
+            }
+            serviceType = String.format("_%s._%s,%s", type, protocol, TextUtils.join(",", subtypes));
+        }
 
         final NsdManager nsdManager = this.getNsdManager();
         NsdServiceInfo serviceInfo  = new NsdServiceInfo();
@@ -132,7 +668,7 @@ public class NsdServiceImpl implements Zeroconf {
         }
 
         nsdManager.registerService(
-                serviceInfo, NsdManager.PROTOCOL_DNS_SD, new ServiceRegistrationListener());
+                serviceInfo, NsdManager.PROTOCOL_DNS_SD, new ServiceRegistrationListener(promise));
     }
 
     @Override
@@ -155,29 +691,271 @@ public class NsdServiceImpl implements Zeroconf {
         return mNsdManager;
     }
 
+    /**
+     * The multicast lock shared with the DNSSD implementation, held by the running scan, type
+     * browse and targeted resolves.
+     */
+    private MulticastLockCoordinator getMulticastLock() {
+        if (multicastLock == null) {
+            multicastLock = MulticastLockCoordinator.getInstance(getReactApplicationContext());
+        }
+        return multicastLock;
+    }
+
     private ReactApplicationContext getReactApplicationContext() {
         return reactApplicationContext;
     }
 
+    /**
+     * Listener of the scan discovery. A discovery restarted on a network change neither reports
+     * the previous one as stopped nor itself as started.
+     */
+    private class ScanDiscoveryListener implements NsdManager.DiscoveryListener {
+        private final boolean restarted;
+        private boolean restarting;
+
+        ScanDiscoveryListener(boolean restarted) {
+            this.restarted = restarted;
+        }
+
+        @Override
+        public void onStartDiscoveryFailed(String serviceType, int errorCode) {
+            String error = "Starting service discovery failed with code: " + errorCode;
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, error);
+
+            Promise scanPromise = setScanPromise(null);
+            if (scanPromise != null) {
+                scanPromise.reject(ZeroconfErrors.fromNsd(errorCode), error);
+            }
+        }
+
+        @Override
+        public void onStopDiscoveryFailed(String serviceType, int errorCode) {
+            String error = "Stopping service discovery failed with code: " + errorCode;
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, error);
+        }
+
+        @Override
+        public void onDiscoveryStarted(String serviceType) {
+            Log.d(TAG, "Discovery started for " + serviceType);
+            if (!restarted) {
+                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_START, null);
+            }
+
+            Promise scanPromise = setScanPromise(null);
+            if (scanPromise != null) {
+                scanPromise.resolve(null);
+            }
+        }
+
+        @Override
+        public void onDiscoveryStopped(String serviceType) {
+            Log.d(TAG, "Discovery stopped for " + serviceType);
+            if (!restarting) {
+                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_STOP, null);
+            }
+        }
+
+        @Override
+        public void onServiceFound(NsdServiceInfo serviceInfo) {
+            Log.d(TAG, "Service found: " + serviceInfo.getServiceName());
+            mStats.onFound();
+            if (!mFilter.matchesName(serviceInfo.getServiceName())) {
+                mStats.onFilteredByName();
+                return;
+            }
+            mServices.found(mServiceType, serviceInfo.getServiceName(), serviceInfo);
+            WritableMap service = new WritableNativeMap();
+            service.putString(ZeroconfModule.KEY_SERVICE_NAME, serviceInfo.getServiceName());
+
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_FOUND, service);
+            mResolveQueue.add(serviceInfo.getServiceName(), new QueuedResolve(serviceInfo, false));
+        }
+
+        @Override
+        public void onServiceLost(NsdServiceInfo serviceInfo) {
+            Log.d(TAG, "Service lost: " + serviceInfo.getServiceName());
+            if (!mFilter.matchesName(serviceInfo.getServiceName())) {
+                return;
+            }
+            mResolveQueue.remove(serviceInfo.getServiceName());
+            mServices.remove(serviceInfo.getServiceName());
+            zeroconfModule.getDiscoveryCache().remove(mServiceType, serviceInfo.getServiceName());
+            WritableMap service = new WritableNativeMap();
+            service.putString(ZeroconfModule.KEY_SERVICE_NAME, serviceInfo.getServiceName());
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_REMOVE, service);
+        }
+    }
+
     private class ZeroResolveListener implements NsdManager.ResolveListener {
+        private final Runnable done;
+        private int retries;
+
+        ZeroResolveListener(Runnable done) {
+            this.done = done;
+        }
+
+        @Override
+        public void onResolveFailed(NsdServiceInfo serviceInfo, int errorCode) {
+            if (errorCode == NsdManager.FAILURE_ALREADY_ACTIVE && retryResolve(serviceInfo, this, retries++)) {
+                return;
+            }
+
+            done.run();
+            String error = "Resolving service failed with code: " + errorCode;
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, error);
+        }
+
+        @Override
+        public void onServiceResolved(NsdServiceInfo serviceInfo) {
+            done.run();
+            DiscoveredService discovered = toDiscoveredService(serviceInfo);
+            if (!mFilter.matchesTxt(discovered.getTxt())) {
+                // NsdManager resolves the addresses along with the TXT record, only the
+                // bridge serialization can be skipped
+                mStats.onFilteredByTxt();
+                mServices.remove(serviceInfo.getServiceName());
+                return;
+            }
+            mServices.resolved(mServiceType, serviceInfo, discovered);
+            zeroconfModule.getDiscoveryCache().put(mServiceType, discovered);
+            mStats.onResolved();
+            if (mDutyCycle != null) {
+                mDutyCycle.onDiscovered();
+            }
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_RESOLVE, discovered);
+        }
+    }
+
+    /**
+     * A resolve waiting for the single NsdManager resolve slot.
+     */
+    private static class QueuedResolve {
+        private final NsdServiceInfo serviceInfo;
+        // Checking whether a known service is still there rather than resolving a found one
+        private final boolean reachability;
+
+        QueuedResolve(NsdServiceInfo serviceInfo, boolean reachability) {
+            this.serviceInfo = serviceInfo;
+            this.reachability = reachability;
+        }
+    }
+
+    private class ReachabilityResolveListener implements NsdManager.ResolveListener {
+        private final Runnable done;
+        private int retries;
+
+        ReachabilityResolveListener(Runnable done) {
+            this.done = done;
+        }
+
         @Override
         public void onResolveFailed(NsdServiceInfo serviceInfo, int errorCode) {
             if (errorCode == NsdManager.FAILURE_ALREADY_ACTIVE) {
-                mNsdManager.resolveService(serviceInfo, this);
-            } else {
-                String error = "Resolving service failed with code: " + errorCode;
-                zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, error);
+                // A busy NsdManager says nothing about the service, it is left as is
+                if (!retryResolve(serviceInfo, this, retries++)) {
+                    done.run();
+                    Log.d(TAG, "Gave up verifying " + serviceInfo.getServiceName() + ", NsdManager stayed busy");
+                }
+                return;
+            }
+
+            done.run();
+            ServiceRegistry.Entry<NsdServiceInfo> entry = mServices.remove(serviceInfo.getServiceName());
+            if (entry == null) {
+                return;
             }
+            // Or the warm start cache would bring it back on the next scan
+            zeroconfModule.getDiscoveryCache().remove(entry.getType(), serviceInfo.getServiceName());
+            WritableMap service = new WritableNativeMap();
+            service.putString(ZeroconfModule.KEY_SERVICE_NAME, serviceInfo.getServiceName());
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_REMOVE, service);
         }
 
         @Override
         public void onServiceResolved(NsdServiceInfo serviceInfo) {
-            WritableMap service = serviceInfoToMap(serviceInfo);
-            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_RESOLVE, service);
+            done.run();
+            mServices.touch(serviceInfo.getServiceName());
+        }
+    }
+
+    private class TargetedResolveListener implements NsdManager.ResolveListener {
+        private final String cacheKey;
+        private final Promise promise;
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private int retries;
+        private final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                if (settle()) {
+                    stopResolution();
+                    promise.reject(ZeroconfErrors.TIMEOUT, "Resolving service timed out");
+                }
+            }
+        };
+
+        TargetedResolveListener(String cacheKey, Promise promise) {
+            this.cacheKey = cacheKey;
+            this.promise = promise;
+        }
+
+        /**
+         * @return true the first time the resolve settles, which returns the multicast lock.
+         */
+        private boolean settle() {
+            if (!settled.compareAndSet(false, true)) {
+                return false;
+            }
+            mTargetedResolves.remove(this);
+            handler.removeCallbacks(timeout);
+            getMulticastLock().release();
+            return true;
+        }
+
+        void cancel() {
+            if (settle()) {
+                stopResolution();
+                promise.reject(ZeroconfErrors.CANCELLED, "Resolving service was cancelled");
+            }
+        }
+
+        private void stopResolution() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+                getNsdManager().stopServiceResolution(this);
+            }
+        }
+
+        @Override
+        public void onResolveFailed(NsdServiceInfo serviceInfo, int errorCode) {
+            if (errorCode == NsdManager.FAILURE_ALREADY_ACTIVE && !settled.get()
+                    && retryResolve(serviceInfo, this, retries++)) {
+                // The timeout still settles the promise if NsdManager stays busy
+                return;
+            }
+
+            if (settle()) {
+                promise.reject(ZeroconfErrors.fromNsd(errorCode), "Resolving service failed with code: " + errorCode);
+            }
+        }
+
+        @Override
+        public void onServiceResolved(NsdServiceInfo serviceInfo) {
+            DiscoveredService discovered = toDiscoveredService(serviceInfo);
+            mResolveCache.put(cacheKey, discovered, RESOLVE_CACHE_TTL_MS);
+
+            if (settle()) {
+                promise.resolve(discovered.toWritableMap());
+            }
         }
     }
 
     private class ServiceRegistrationListener implements NsdManager.RegistrationListener {
+        @Nullable
+        private Promise promise;
+
+        ServiceRegistrationListener(@Nullable Promise promise) {
+            this.promise = promise;
+        }
 
         @Override
         public void onServiceRegistered(NsdServiceInfo NsdServiceInfo) {
@@ -190,11 +968,22 @@ public class NsdServiceImpl implements Zeroconf {
 
             WritableMap service = serviceInfoToMap(NsdServiceInfo);
             zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_PUBLISHED, service);
+
+            if (promise != null) {
+                promise.resolve(serviceInfoToMap(NsdServiceInfo));
+                promise = null;
+            }
         }
 
         @Override
         public void onRegistrationFailed(NsdServiceInfo serviceInfo, int errorCode) {
-            // Registration failed!  Put debugging code here to determine why.
+            String error = "Registering service failed with code: " + errorCode;
+            zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, error);
+
+            if (promise != null) {
+                promise.reject(ZeroconfErrors.fromNsd(errorCode), error);
+                promise = null;
+            }
         }
 
         @Override
@@ -212,32 +1001,31 @@ public class NsdServiceImpl implements Zeroconf {
     }
 
     private WritableMap serviceInfoToMap(NsdServiceInfo serviceInfo) {
-        WritableMap service = new WritableNativeMap();
-        service.putString(ZeroconfModule.KEY_SERVICE_NAME, serviceInfo.getServiceName());
+        return toDiscoveredService(serviceInfo).toWritableMap();
+    }
+
+    private DiscoveredService toDiscoveredService(NsdServiceInfo serviceInfo) {
         final InetAddress host = serviceInfo.getHost();
         final String fullServiceName;
+        final String hostName;
+        final List<String> addresses = new ArrayList<>();
         if (host == null) {
             fullServiceName = serviceInfo.getServiceName();
+            hostName = null;
         } else {
             fullServiceName = host.getHostName() + serviceInfo.getServiceType();
-            service.putString(ZeroconfModule.KEY_SERVICE_HOST, host.getHostName());
-
-            WritableArray addresses = new WritableNativeArray();
-            addresses.pushString(host.getHostAddress());
-
-            service.putArray(ZeroconfModule.KEY_SERVICE_ADDRESSES, addresses);
+            hostName = host.getHostName();
+            addresses.add(host.getHostAddress());
         }
-        service.putString(ZeroconfModule.KEY_SERVICE_FULL_NAME, fullServiceName);
-        service.putInt(ZeroconfModule.KEY_SERVICE_PORT, serviceInfo.getPort());
 
-        WritableMap txtRecords = new WritableNativeMap();
+        Map<String, String> txtRecords = new HashMap<>();
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             Map<String, byte[]> attributes = serviceInfo.getAttributes();
             for (String key : attributes.keySet()) {
                 try {
                     byte[] recordValue = attributes.get(key);
-                    txtRecords.putString(String.format(Locale.getDefault(), "%s", key), String.format(Locale.getDefault(), "%s", recordValue != null ? new String(recordValue, "UTF_8") : ""));
+                    txtRecords.put(String.format(Locale.getDefault(), "%s", key), String.format(Locale.getDefault(), "%s", recordValue != null ? new String(recordValue, "UTF_8") : ""));
                 } catch (UnsupportedEncodingException e) {
                     String error = "Failed to encode txtRecord: " + e;
                     zeroconfModule.sendEvent(getReactApplicationContext(), ZeroconfModule.EVENT_ERROR, error);
@@ -245,8 +1033,6 @@ public class NsdServiceImpl implements Zeroconf {
             }
         }
 
-        service.putMap(ZeroconfModule.KEY_SERVICE_TXT, txtRecords);
-
-        return service;
+        return new DiscoveredService(serviceInfo.getServiceName(), fullServiceName, hostName, serviceInfo.getPort(), addresses, txtRecords);
     }
 }
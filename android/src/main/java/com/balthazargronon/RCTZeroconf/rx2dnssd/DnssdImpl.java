@@ -1,12 +1,24 @@
 package com.balthazargronon.RCTZeroconf.rx2dnssd;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
-import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.balthazargronon.RCTZeroconf.DiscoveredService;
+import com.balthazargronon.RCTZeroconf.DutyCycle;
+import com.balthazargronon.RCTZeroconf.ResolveQueue;
+import com.balthazargronon.RCTZeroconf.ScanOptions;
+import com.balthazargronon.RCTZeroconf.ScanStats;
+import com.balthazargronon.RCTZeroconf.ServiceFilter;
+import com.balthazargronon.RCTZeroconf.ServiceRegistry;
+import com.balthazargronon.RCTZeroconf.ServiceTypeSet;
+import com.balthazargronon.RCTZeroconf.TtlCache;
 import com.balthazargronon.RCTZeroconf.Zeroconf;
+import com.balthazargronon.RCTZeroconf.ZeroconfErrors;
 import com.balthazargronon.RCTZeroconf.ZeroconfModule;
+import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.ReadableMapKeySetIterator;
@@ -14,41 +26,106 @@ import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeArray;
 import com.facebook.react.bridge.WritableNativeMap;
+import com.github.druk.dnssd.DNSSD;
+import com.github.druk.dnssd.NSType;
+import com.github.druk.rx2dnssd.BonjourDomain;
 import com.github.druk.rx2dnssd.BonjourService;
+import com.github.druk.rx2dnssd.HostAddress;
 import com.github.druk.rx2dnssd.Rx2Dnssd;
-import com.github.druk.rx2dnssd.Rx2DnssdEmbedded;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
+import io.reactivex.Flowable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.observers.DisposableSingleObserver;
 import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.DisposableSubscriber;
 
 public class DnssdImpl implements Zeroconf {
+    private static final int MAX_CONCURRENT_RESOLVES = 4;
+    private static final long RESOLVE_SLOT_TIMEOUT_MS = 5 * 1000;
+
     private Rx2Dnssd rxDnssd;
 
     @Nullable
     private Disposable browseDisposable;
+    @Nullable
+    private Disposable typesDisposable;
 
     private Map<String, BonjourService> mPublishedServices;
     private Map<String, Disposable> mRegisteredDisposables;
+    private ServiceRegistry<BonjourService> mServices;
+    private final TtlCache<DiscoveredService> mResolveCache = new TtlCache<>();
+    private final TtlCache<List<String>> mHostCache = new TtlCache<>();
+    private final ServiceTypeSet mServiceTypes = new ServiceTypeSet();
+    private final ScanStats mStats = new ScanStats();
+    private final ResolveQueue<BonjourService> mResolveQueue = new ResolveQueue<>(MAX_CONCURRENT_RESOLVES, this::resolveQueued);
+    private final CompositeDisposable mResolveDisposables = new CompositeDisposable();
+    private final CompositeDisposable mTargetedResolveDisposables = new CompositeDisposable();
+    private final CompositeDisposable mReconfirmDisposables = new CompositeDisposable();
+    // Host and domain lookups, which like targeted resolves outlive a scan
+    private final CompositeDisposable mLookupDisposables = new CompositeDisposable();
+    private String mTypeKey;
+    private String mScanType;
+    private String mScanProtocol;
+    private String mScanDomain;
+    private ScanOptions mScanOptions;
+    @Nullable
+    private DutyCycle mDutyCycle;
+    private boolean mScanPaused;
+    private boolean mBackgroundPaused;
+    private final DutyCycle.Listener mDutyCycleListener = new DutyCycle.Listener() {
+        @Override
+        public void onActive() {
+            resumeScan();
+        }
+
+        @Override
+        public void onIdle(long activeSince) {
+            pauseScan();
+            expireServices(activeSince);
+        }
+    };
+    private ServiceFilter mFilter = ServiceFilter.from(null);
+    @Nullable
+    private Promise mScanPromise;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable livenessCheck = this::checkLiveness;
+    private final Runnable serviceConfirmation = this::confirmServices;
+    // Resolves finishing in the same main loop pass reach JS as one event
+    private final List<DiscoveredService> mPendingResolved = new ArrayList<>();
+    private final Runnable resolvedFlush = this::flushResolved;
+    private long livenessWindow;
+    // Services not seen since then are removed by the confirmation, set when the scan restarts
+    private long mConfirmSince;
 
     private ZeroconfModule zeroconfModule;
 
     private ReactApplicationContext reactApplicationContext;
-    private WifiManager.MulticastLock multicastLock;
 
     public DnssdImpl(ZeroconfModule zeroconfModule, ReactApplicationContext reactApplicationContext) {
         this.zeroconfModule = zeroconfModule;
         this.reactApplicationContext = reactApplicationContext;
         mPublishedServices = new HashMap<String, BonjourService>();
         mRegisteredDisposables = new HashMap<String, Disposable>();
+        mServices = new ServiceRegistry<BonjourService>();
         rxDnssd = createDnssd(reactApplicationContext);
     }
 
@@ -59,39 +136,185 @@ public class DnssdImpl implements Zeroconf {
      * system daemon at /dev/socket/mdnsd doesn't exist on most devices.
      */
     private Rx2Dnssd createDnssd(Context context) {
-        return new Rx2DnssdEmbedded(context);
+        return new Rx2Dnssd.Builder(context).embedded(true).build();
     }
 
     @Override
-    public void scan(String type, String protocol, String domain) {
+    public void scan(String type, String protocol, String domain, ScanOptions options, @Nullable Promise promise) {
         this.stop();
-
-        if (multicastLock == null) {
-            @SuppressLint("WifiManagerLeak") WifiManager wifi = (WifiManager) reactApplicationContext.getSystemService(Context.WIFI_SERVICE);
-            multicastLock = wifi.createMulticastLock("multicastLock");
-            multicastLock.setReferenceCounted(true);
-            multicastLock.acquire();
+        mServices.clear();
+        mStats.reset();
+        mConfirmSince = 0;
+        setScanPromise(promise);
+
+        final AtomicBoolean started = new AtomicBoolean();
+        final Action onStarted = () -> {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_START, null);
+
+            Promise scanPromise = setScanPromise(null);
+            if (scanPromise != null) {
+                scanPromise.resolve(null);
+            }
+        };
+
+        String typeKey = ServiceRegistry.typeKey(type, protocol);
+        mTypeKey = typeKey;
+        mFilter = options.getFilter();
+        mResolveQueue.setPriority(options.getPriority());
+        mScanType = type;
+        mScanProtocol = protocol;
+        mScanDomain = domain;
+        mScanOptions = options;
+        if (zeroconfModule.getDiscoveryCache().isEnabled()) {
+            replayCachedServices(typeKey);
+        }
+        browseDisposable = browse(type, protocol, domain, options, onStarted);
+        if (options.isDutyCycled()) {
+            mDutyCycle = options.newDutyCycle(mStats, mDutyCycleListener);
+            mDutyCycle.start();
         }
+        if (livenessWindow > 0) {
+            handler.postDelayed(livenessCheck, livenessWindow);
+        }
+    }
 
-        String serviceType = getServiceType(type, protocol);
+    private Disposable browse(String type, String protocol, String domain, ScanOptions options, Action onStarted) {
+        // A subtype is browsed with the "_http._tcp,_printer" form, results carry the plain type
+        String serviceType = options.getSubtype() != null
+                ? getServiceType(type, protocol) + "," + options.getSubtype()
+                : getServiceType(type, protocol);
         Log.d("DnssdImpl", "Starting DNSSD scan for: " + serviceType);
 
-        // Emit start event
-        zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_START, null);
+        Flowable<List<BonjourService>> browse;
+        if (options.isAllDomains()) {
+            // Browse every domain in parallel as it gets enumerated, results are merged
+            browse = rxDnssd.enumerateDomains(DNSSD.BROWSE_DOMAINS)
+                    .filter(bonjourDomain -> !bonjourDomain.isLost())
+                    .map(BonjourDomain::getDomain)
+                    .distinct()
+                    .flatMap(browseDomain -> rxDnssd.browseBatched(serviceType, browseDomain, onStarted));
+        } else {
+            browse = rxDnssd.browseBatched(serviceType, getDomain(domain), onStarted);
+        }
+
+        // Services come in bursts, the found and removed ones of a burst reach JS as one event each
+        return browse
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(burst -> {
+                    List<WritableMap> found = new ArrayList<>();
+                    List<WritableMap> removed = new ArrayList<>();
+                    for (BonjourService bonjourService : burst) {
+                        if (bonjourService.isLost()) {
+                            if (!mFilter.matchesName(bonjourService.getServiceName())) {
+                                continue;
+                            }
+                            mResolveQueue.remove(bonjourService.getServiceName());
+                            mServices.remove(bonjourService.getServiceName());
+                            zeroconfModule.getDiscoveryCache().remove(mTypeKey, bonjourService.getServiceName());
+
+                            WritableMap service = new WritableNativeMap();
+                            service.putString(ZeroconfModule.KEY_SERVICE_NAME, bonjourService.getServiceName());
+                            removed.add(service);
+                            continue;
+                        }
+
+                        mStats.onFound();
+                        if (!mFilter.matchesName(bonjourService.getServiceName())) {
+                            mStats.onFilteredByName();
+                            continue;
+                        }
+                        mServices.found(mTypeKey, bonjourService.getServiceName(), bonjourService);
+                        mResolveQueue.add(bonjourService.getServiceName(), bonjourService);
+
+                        WritableMap service = new WritableNativeMap();
+                        service.putString(ZeroconfModule.KEY_SERVICE_NAME, bonjourService.getServiceName());
+                        found.add(service);
+                    }
+                    zeroconfModule.sendServiceEvents(ZeroconfModule.EVENT_REMOVE, removed);
+                    zeroconfModule.sendServiceEvents(ZeroconfModule.EVENT_FOUND, found);
+                }, throwable -> {
+                    Log.e(getClass().getName(), "Error browsing services: ", throwable);
+                    zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_ERROR, throwable.getMessage());
+
+                    Promise scanPromise = setScanPromise(null);
+                    if (scanPromise != null) {
+                        scanPromise.reject(ZeroconfErrors.fromThrowable(throwable), throwable.getMessage(), throwable);
+                    }
+                });
+    }
+
+    /**
+     * Resolve one service taken from the resolve queue. Its slot is released by the first
+     * answer, a failure or {@link #RESOLVE_SLOT_TIMEOUT_MS}, whichever comes first; the address
+     * queries keep running after that so late answers still update the service.
+     */
+    private void resolveQueued(BonjourService bonjourService, Runnable done) {
+        final String typeKey = mTypeKey;
+        final ServiceFilter filter = mFilter;
+        handler.postDelayed(done, RESOLVE_SLOT_TIMEOUT_MS);
 
-        browseDisposable = rxDnssd.browse(serviceType, "local.")
+        mResolveDisposables.add(Flowable.just(bonjourService)
                 .compose(rxDnssd.resolve())
-                .compose(rxDnssd.queryRecords())
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(bonjourService -> {
-                    WritableMap service = serviceInfoToMap(bonjourService);
-                    Log.d(getClass().getName(), service.toString());
-                    zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_RESOLVE, service);
+                .filter(resolvedService -> {
+                    if (filter.matchesTxt(resolvedService.getTxtRecords())) {
+                        return true;
+                    }
+                    // Free the slot on the main thread like every other outcome, no address is queried
+                    done.run();
+                    handler.removeCallbacks(done);
+                    mStats.onFilteredByTxt();
+                    mServices.remove(resolvedService.getServiceName());
+                    return false;
+                })
+                .observeOn(Schedulers.io())
+                .compose(rxDnssd.queryRecords())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(resolvedService -> {
+                    done.run();
+                    handler.removeCallbacks(done);
+
+                    DiscoveredService discovered = toDiscoveredService(resolvedService);
+                    mServices.resolved(typeKey, resolvedService, discovered);
+                    zeroconfModule.getDiscoveryCache().put(typeKey, discovered);
+                    mStats.onResolved();
+                    if (mDutyCycle != null) {
+                        mDutyCycle.onDiscovered();
+                    }
+
+                    Log.d(getClass().getName(), "Resolved " + discovered.getName());
+                    synchronized (mPendingResolved) {
+                        if (mPendingResolved.isEmpty()) {
+                            handler.post(resolvedFlush);
+                        }
+                        mPendingResolved.add(discovered);
+                    }
                 }, throwable -> {
+                    done.run();
+                    handler.removeCallbacks(done);
+
                     Log.e(getClass().getName(), "Error resolving service: ", throwable);
                     zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_ERROR, throwable.getMessage());
-                });
+                }));
+    }
+
+    private void flushResolved() {
+        List<DiscoveredService> resolved;
+        synchronized (mPendingResolved) {
+            handler.removeCallbacks(resolvedFlush);
+            resolved = new ArrayList<>(mPendingResolved);
+            mPendingResolved.clear();
+        }
+        zeroconfModule.sendServiceEvents(ZeroconfModule.EVENT_RESOLVE, resolved);
+    }
+
+    private String getDomain(@Nullable String domain) {
+        return domain != null && !domain.isEmpty() ? domain : "local.";
     }
 
     private String getServiceType(String type, String protocol) {
@@ -99,47 +322,516 @@ public class DnssdImpl implements Zeroconf {
     }
 
     private WritableMap serviceInfoToMap(BonjourService serviceInfo) {
-        WritableMap service = new WritableNativeMap();
-        service.putString(ZeroconfModule.KEY_SERVICE_NAME, serviceInfo.getServiceName());
-        final List<InetAddress> hostList = serviceInfo.getInetAddresses();
-        final String fullServiceName;
-        Log.d("TAG", serviceInfo.getServiceName());
-        fullServiceName = serviceInfo.getServiceName();
-        service.putString(ZeroconfModule.KEY_SERVICE_HOST, fullServiceName);
-
-        WritableArray addresses = new WritableNativeArray();
-        for (InetAddress host : hostList) {
-            addresses.pushString(host.getHostAddress());
-        }
+        return toDiscoveredService(serviceInfo).toWritableMap();
+    }
 
-        service.putArray(ZeroconfModule.KEY_SERVICE_ADDRESSES, addresses);
-        service.putString(ZeroconfModule.KEY_SERVICE_FULL_NAME, fullServiceName);
-        service.putInt(ZeroconfModule.KEY_SERVICE_PORT, serviceInfo.getPort());
+    private DiscoveredService toDiscoveredService(BonjourService serviceInfo) {
+        final String fullServiceName = serviceInfo.getServiceName();
 
-        WritableMap txtRecords = new WritableNativeMap();
+        List<String> addresses = new ArrayList<>();
+        for (InetAddress host : serviceInfo.getInetAddresses()) {
+            addresses.add(host.getHostAddress());
+        }
 
+        Map<String, String> txtRecords = new HashMap<>();
         Map<String, String> attributes = serviceInfo.getTxtRecords();
         for (String key : attributes.keySet()) {
             String recordValue = attributes.get(key);
-            txtRecords.putString(String.format(Locale.getDefault(), "%s", key), String.format(Locale.getDefault(), "%s", recordValue != null ? recordValue : ""));
+            txtRecords.put(String.format(Locale.getDefault(), "%s", key), String.format(Locale.getDefault(), "%s", recordValue != null ? recordValue : ""));
         }
 
-        service.putMap(ZeroconfModule.KEY_SERVICE_TXT, txtRecords);
-
-        return service;
+        return new DiscoveredService(serviceInfo.getServiceName(), fullServiceName, fullServiceName, serviceInfo.getPort(), addresses, txtRecords);
     }
 
     @Override
     public void stop() {
+        Promise scanPromise = setScanPromise(null);
+        if (scanPromise != null) {
+            scanPromise.reject(ZeroconfErrors.CANCELLED, "Scan was stopped before it started");
+        }
+
+        if (mDutyCycle != null) {
+            mDutyCycle.stop();
+            mDutyCycle = null;
+        }
+        mBackgroundPaused = false;
+        mScanPaused = false;
+        flushResolved();
+        mResolveQueue.clear();
+        mResolveDisposables.clear();
+        handler.removeCallbacks(serviceConfirmation);
+        handler.removeCallbacks(livenessCheck);
+
         if (browseDisposable != null) {
             browseDisposable.dispose();
             zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_STOP, null);
         }
-        if (multicastLock != null) {
-            multicastLock.release();
-        }
         browseDisposable = null;
-        multicastLock = null;
+    }
+
+    @Override
+    public void destroy() {
+        mTargetedResolveDisposables.clear();
+        mReconfirmDisposables.clear();
+        mLookupDisposables.clear();
+    }
+
+    @Override
+    public boolean isScanning(String typeKey) {
+        return browseDisposable != null && typeKey.equals(mTypeKey);
+    }
+
+    /**
+     * Replace the promise of the pending scan, returning the previous one.
+     */
+    @Nullable
+    private synchronized Promise setScanPromise(@Nullable Promise promise) {
+        Promise previous = mScanPromise;
+        mScanPromise = promise;
+        return previous;
+    }
+
+    @Override
+    public void resolveService(String name, String type, String protocol, String domain, long timeoutMs, Promise promise) {
+        String serviceType = getServiceType(type, protocol);
+        String resolveDomain = getDomain(domain);
+        String cacheKey = name + "." + serviceType + "." + resolveDomain;
+
+        DiscoveredService cached = mResolveCache.get(cacheKey);
+        if (cached != null) {
+            promise.resolve(cached.toWritableMap());
+            return;
+        }
+
+        BonjourService bs = new BonjourService.Builder(0, 0, name, serviceType, resolveDomain).build();
+        // Without addresses after half the timeout, the service is settled with its host and port
+        mTargetedResolveDisposables.add(Flowable.just(bs)
+                .compose(rxDnssd.resolve(timeoutMs / 2, TimeUnit.MILLISECONDS))
+                .firstOrError()
+                .timeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .doOnDispose(() -> promise.reject(ZeroconfErrors.CANCELLED, "Resolving service was cancelled"))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeWith(new DisposableSingleObserver<BonjourService>() {
+                    @Override
+                    public void onSuccess(BonjourService bonjourService) {
+                        mTargetedResolveDisposables.delete(this);
+                        DiscoveredService discovered = toDiscoveredService(bonjourService);
+                        if (!discovered.getAddresses().isEmpty()) {
+                            mResolveCache.put(cacheKey, discovered, RESOLVE_CACHE_TTL_MS);
+                        }
+                        promise.resolve(discovered.toWritableMap());
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        mTargetedResolveDisposables.delete(this);
+                        Log.e(getClass().getName(), "Error resolving service: ", throwable);
+                        promise.reject(ZeroconfErrors.fromThrowable(throwable), "Resolving service failed: " + throwable.getMessage(), throwable);
+                    }
+                }));
+    }
+
+    /**
+     * Run the A and AAAA queries in parallel and settle the promise with the first answer.
+     * Every answer refreshes the cache with the smallest TTL seen so far.
+     */
+    @Override
+    public void resolveHost(String hostname, String family, long timeoutMs, boolean stream, Promise promise) {
+        String host = hostname.endsWith(".") ? hostname : hostname + ".";
+        String cacheKey = family + ":" + host;
+
+        List<String> cached = mHostCache.get(cacheKey);
+        if (cached != null) {
+            if (cached.isEmpty()) {
+                promise.reject(ZeroconfErrors.NOT_FOUND, "No address found for host: " + hostname);
+            } else {
+                promise.resolve(ZeroconfModule.hostToMap(hostname, cached));
+            }
+            return;
+        }
+
+        Flowable<HostAddress> queries;
+        if (FAMILY_IPV4.equals(family)) {
+            queries = rxDnssd.queryHostAddresses(host, NSType.A, !stream);
+        } else if (FAMILY_IPV6.equals(family)) {
+            queries = rxDnssd.queryHostAddresses(host, NSType.AAAA, !stream);
+        } else {
+            queries = rxDnssd.queryHostAddresses(host, NSType.A, !stream)
+                    .mergeWith(rxDnssd.queryHostAddresses(host, NSType.AAAA, !stream));
+        }
+
+        final List<String> addresses = new ArrayList<>();
+        final int[] minTtl = {Integer.MAX_VALUE};
+        mLookupDisposables.add(queries
+                .take(timeoutMs, TimeUnit.MILLISECONDS)
+                .doOnCancel(() -> promise.reject(ZeroconfErrors.CANCELLED, "Resolving host was cancelled"))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeWith(new DisposableSubscriber<HostAddress>() {
+                    @Override
+                    public void onNext(HostAddress hostAddress) {
+                        String address = hostAddress.getAddress().getHostAddress();
+                        if (addresses.contains(address)) {
+                            return;
+                        }
+                        addresses.add(address);
+                        minTtl[0] = Math.min(minTtl[0], hostAddress.getTtl());
+                        mHostCache.put(cacheKey, new ArrayList<>(addresses), minTtl[0] * 1000L);
+
+                        if (addresses.size() == 1) {
+                            promise.resolve(ZeroconfModule.hostToMap(hostname, addresses));
+                        } else if (stream) {
+                            WritableMap event = new WritableNativeMap();
+                            event.putString(ZeroconfModule.KEY_SERVICE_HOST, hostname);
+                            event.putString(ZeroconfModule.KEY_HOST_ADDRESS, address);
+                            event.putInt(ZeroconfModule.KEY_HOST_TTL, hostAddress.getTtl());
+                            zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_HOST_ADDRESS, event);
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        mLookupDisposables.delete(this);
+                        Log.e(getClass().getName(), "Error resolving host: ", throwable);
+                        if (addresses.isEmpty()) {
+                            promise.reject(ZeroconfErrors.fromThrowable(throwable), "Resolving host failed: " + throwable.getMessage(), throwable);
+                        }
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        mLookupDisposables.delete(this);
+                        if (addresses.isEmpty()) {
+                            mHostCache.put(cacheKey, Collections.<String>emptyList(), HOST_NEGATIVE_CACHE_TTL_MS);
+                            promise.reject(ZeroconfErrors.NOT_FOUND, "No address found for host: " + hostname);
+                        }
+                    }
+                }));
+    }
+
+    @Override
+    public void browseServiceTypes(@Nullable Promise promise) {
+        stopBrowseServiceTypes();
+        mServiceTypes.clear();
+        final Promise[] pendingPromise = {promise};
+
+        typesDisposable = rxDnssd.browse(ServiceTypeSet.META_QUERY_TYPE, "local.", () -> {
+                    if (pendingPromise[0] != null) {
+                        pendingPromise[0].resolve(null);
+                        pendingPromise[0] = null;
+                    }
+                })
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(bonjourService -> {
+                    String type = ServiceTypeSet.typeOf(bonjourService.getServiceName(), bonjourService.getRegType());
+                    if (bonjourService.isLost()) {
+                        mServiceTypes.remove(type);
+                    } else {
+                        mServiceTypes.add(type);
+                    }
+                    zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_SERVICE_TYPES, mServiceTypes.toWritableArray());
+                }, throwable -> {
+                    Log.e(getClass().getName(), "Error browsing service types: ", throwable);
+                    zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_ERROR, "Browsing service types failed: " + throwable.getMessage());
+
+                    if (pendingPromise[0] != null) {
+                        pendingPromise[0].reject(ZeroconfErrors.fromThrowable(throwable), throwable.getMessage(), throwable);
+                        pendingPromise[0] = null;
+                    }
+                });
+    }
+
+    @Override
+    public void stopBrowseServiceTypes() {
+        if (typesDisposable != null) {
+            typesDisposable.dispose();
+        }
+        typesDisposable = null;
+    }
+
+    @Override
+    public void enumerateDomains(boolean registration, long timeoutMs, Promise promise) {
+        final Map<String, Boolean> domains = new LinkedHashMap<>();
+        mLookupDisposables.add(rxDnssd.enumerateDomains(registration ? DNSSD.REGISTRATION_DOMAINS : DNSSD.BROWSE_DOMAINS)
+                .take(timeoutMs, TimeUnit.MILLISECONDS)
+                .doOnCancel(() -> promise.reject(ZeroconfErrors.CANCELLED, "Enumerating domains was cancelled"))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeWith(new DisposableSubscriber<BonjourDomain>() {
+                    @Override
+                    public void onNext(BonjourDomain bonjourDomain) {
+                        if (bonjourDomain.isLost()) {
+                            domains.remove(bonjourDomain.getDomain());
+                        } else {
+                            Boolean isDefault = domains.get(bonjourDomain.getDomain());
+                            domains.put(bonjourDomain.getDomain(), bonjourDomain.isDefault() || Boolean.TRUE.equals(isDefault));
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        mLookupDisposables.delete(this);
+                        Log.e(getClass().getName(), "Error enumerating domains: ", throwable);
+                        promise.reject(ZeroconfErrors.fromThrowable(throwable), "Enumerating domains failed: " + throwable.getMessage(), throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        mLookupDisposables.delete(this);
+                        WritableArray result = new WritableNativeArray();
+                        for (Map.Entry<String, Boolean> entry : domains.entrySet()) {
+                            result.pushMap(ZeroconfModule.domainToMap(entry.getKey(), entry.getValue()));
+                        }
+                        promise.resolve(result);
+                    }
+                }));
+    }
+
+    @Override
+    public ScanStats getStats() {
+        return mStats;
+    }
+
+    @Override
+    public ServiceRegistry<BonjourService> getRegistry() {
+        return mServices;
+    }
+
+    @Override
+    public WritableMap getServices(String type, String protocol) {
+        return mServices.toWritableMap(type != null ? ServiceRegistry.typeKey(type, protocol) : null);
+    }
+
+    @Override
+    public void reportUnreachable(String serviceName) {
+        ServiceRegistry.Entry<BonjourService> entry = mServices.get(serviceName);
+        if (entry == null || entry.getSource() == null) {
+            return;
+        }
+
+        mServices.touch(serviceName);
+        mReconfirmDisposables.add(rxDnssd.reconfirm(entry.getSource())
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(() -> {
+                }, throwable -> {
+                    Log.e(getClass().getName(), "Error reconfirming service: ", throwable);
+                    zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_ERROR, "Reconfirming service failed: " + throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Send the cached services of the type as resolved right away, live discovery then has
+     * {@link #CACHE_CONFIRM_WINDOW_MS} to confirm them.
+     */
+    private void replayCachedServices(String typeKey) {
+        for (DiscoveredService cached : zeroconfModule.getDiscoveryCache().get(typeKey)) {
+            if (!mFilter.matchesName(cached.getName()) || !mFilter.matchesTxt(cached.getTxt())) {
+                continue;
+            }
+            DiscoveredService service = cached.asCached();
+            mServices.cached(typeKey, service);
+            zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_RESOLVE, service);
+        }
+        handler.postDelayed(serviceConfirmation, CACHE_CONFIRM_WINDOW_MS);
+    }
+
+    /**
+     * Remove the services live discovery hasn't confirmed, either replayed from the cache or
+     * not seen again since the scan restarted.
+     */
+    private void confirmServices() {
+        for (ServiceRegistry.Entry<BonjourService> entry : mServices.entries()) {
+            if (!entry.getService().isCached() && entry.getLastSeen() >= mConfirmSince) {
+                continue;
+            }
+            String name = entry.getService().getName();
+            mServices.remove(name);
+            zeroconfModule.getDiscoveryCache().remove(entry.getType(), name);
+
+            WritableMap service = new WritableNativeMap();
+            service.putString(ZeroconfModule.KEY_SERVICE_NAME, name);
+            zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_REMOVE, service);
+        }
+    }
+
+    @Override
+    public void onNetworkChanged(boolean switched) {
+        boolean scanning = browseDisposable != null;
+        if (switched) {
+            switchNetwork(scanning);
+        }
+        if (scanning && !mBackgroundPaused) {
+            restartScan();
+            if (mDutyCycle != null) {
+                mDutyCycle.burst();
+            }
+        }
+        republishServices();
+    }
+
+    /**
+     * Browse again on the new network without clearing the discovered services, the ones not
+     * found again within {@link #CACHE_CONFIRM_WINDOW_MS} are removed. The embedded daemon
+     * keeps running, only the browse operations are recreated.
+     */
+    private void restartScan() {
+        if (!mScanPaused) {
+            pauseScan();
+        }
+        resumeScan();
+
+        mConfirmSince = SystemClock.elapsedRealtime();
+        handler.removeCallbacks(serviceConfirmation);
+        handler.postDelayed(serviceConfirmation, CACHE_CONFIRM_WINDOW_MS);
+    }
+
+    /**
+     * Stop browsing without reporting the scan as stopped, the discovered services are kept.
+     */
+    private void pauseScan() {
+        mResolveQueue.clear();
+        mResolveDisposables.clear();
+        if (browseDisposable != null) {
+            browseDisposable.dispose();
+        }
+        mScanPaused = true;
+    }
+
+    private void resumeScan() {
+        if (!mScanPaused) {
+            return;
+        }
+        mScanPaused = false;
+        browseDisposable = browse(mScanType, mScanProtocol, mScanDomain, mScanOptions, () -> {
+        });
+    }
+
+    /**
+     * Register the published services again so they are announced on the new network.
+     */
+    private void republishServices() {
+        for (BonjourService bs : new ArrayList<>(mPublishedServices.values())) {
+            Disposable registerDisposable = mRegisteredDisposables.get(bs.getServiceName());
+            if (registerDisposable != null) {
+                registerDisposable.dispose();
+            }
+            mRegisteredDisposables.put(bs.getServiceName(), register(bs, null, true));
+        }
+    }
+
+    /**
+     * Replace the services of the previous network with those last seen on the new one.
+     */
+    private void switchNetwork(boolean scanning) {
+        handler.removeCallbacks(serviceConfirmation);
+        Set<String> restored = new HashSet<>();
+        if (scanning) {
+            for (DiscoveredService cached : zeroconfModule.getDiscoveryCache().get(mTypeKey)) {
+                if (mFilter.matchesName(cached.getName()) && mFilter.matchesTxt(cached.getTxt())) {
+                    restored.add(cached.getName());
+                }
+            }
+        }
+        for (ServiceRegistry.Entry<BonjourService> entry : mServices.entries()) {
+            String name = entry.getService().getName();
+            if (restored.contains(name)) {
+                continue;
+            }
+            WritableMap service = new WritableNativeMap();
+            service.putString(ZeroconfModule.KEY_SERVICE_NAME, name);
+            zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_REMOVE, service);
+        }
+        mServices.clear();
+
+        if (scanning) {
+            replayCachedServices(mTypeKey);
+        }
+    }
+
+    @Override
+    public void pauseInBackground() {
+        if (browseDisposable == null || mBackgroundPaused) {
+            return;
+        }
+        mBackgroundPaused = true;
+        if (mDutyCycle != null) {
+            mDutyCycle.stop();
+        }
+        if (!mScanPaused) {
+            pauseScan();
+        }
+    }
+
+    @Override
+    public void resumeFromBackground() {
+        if (!mBackgroundPaused) {
+            return;
+        }
+        mBackgroundPaused = false;
+        restartScan();
+        if (mDutyCycle != null) {
+            mDutyCycle.start();
+        }
+    }
+
+    @Override
+    public void burstScan() {
+        if (mDutyCycle != null) {
+            mDutyCycle.burst();
+        }
+    }
+
+    /**
+     * Remove the services not seen during the last active window of a duty-cycled scan whose
+     * records would have expired by now, the others are kept through the idle window.
+     */
+    private void expireServices(long activeSince) {
+        long now = SystemClock.elapsedRealtime();
+        for (ServiceRegistry.Entry<BonjourService> entry : mServices.entries()) {
+            long lastSeen = entry.getLastSeen();
+            if (lastSeen >= activeSince || now - lastSeen < RESOLVE_CACHE_TTL_MS) {
+                continue;
+            }
+            String name = entry.getService().getName();
+            mServices.remove(name);
+            zeroconfModule.getDiscoveryCache().remove(entry.getType(), name);
+
+            WritableMap service = new WritableNativeMap();
+            service.putString(ZeroconfModule.KEY_SERVICE_NAME, name);
+            zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_REMOVE, service);
+        }
+    }
+
+    /**
+     * The check runs while a scan is running, it starts with the next scan otherwise.
+     */
+    @Override
+    public void setLivenessWindow(long windowMs) {
+        livenessWindow = windowMs;
+        handler.removeCallbacks(livenessCheck);
+        if (livenessWindow > 0 && browseDisposable != null) {
+            handler.postDelayed(livenessCheck, livenessWindow);
+        }
+    }
+
+    /**
+     * Reconfirm every service that hasn't been seen during the last liveness window, so the
+     * daemon flushes the ones that left the network without sending a goodbye.
+     */
+    private void checkLiveness() {
+        if (livenessWindow <= 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        for (ServiceRegistry.Entry<BonjourService> entry : mServices.entries()) {
+            if (now - entry.getLastSeen() >= livenessWindow) {
+                reportUnreachable(entry.getService().getName());
+            }
+        }
+        handler.postDelayed(livenessCheck, livenessWindow);
     }
 
     @Override
@@ -160,25 +852,45 @@ public class DnssdImpl implements Zeroconf {
     }
 
     @Override
-    public void registerService(String type, String protocol, String domain, String name, int port, ReadableMap txt) {
-        BonjourService bs = new BonjourService.Builder(0, 0, name, getServiceType(type, protocol), null)
+    public void registerService(String type, String protocol, String domain, String name, int port, ReadableMap txt, List<String> subtypes, @Nullable Promise promise) {
+        StringBuilder regType = new StringBuilder(getServiceType(type, protocol));
+        for (String subtype : subtypes) {
+            regType.append(',').append(subtype);
+        }
+        BonjourService bs = new BonjourService.Builder(0, 0, name, regType.toString(), null)
                 .port(port)
                 .dnsRecords(getTxtRecordMap(txt))
                 .build();
 
-        Disposable registerDisposable = rxDnssd.register(bs)
+        mRegisteredDisposables.put(name, register(bs, promise, false));
+    }
+
+    private Disposable register(BonjourService bs, @Nullable Promise promise, boolean republish) {
+        final Promise[] pendingPromise = {promise};
+        return rxDnssd.register(bs)
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(bonjourService -> {
                     Log.i("TAG", "Register successfully " + bonjourService.toString());
 
                     mPublishedServices.put(bs.getServiceName(), bs);
-                    zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_PUBLISHED, serviceInfoToMap(bonjourService));
+                    if (!republish) {
+                        zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_PUBLISHED, serviceInfoToMap(bonjourService));
+                    }
+
+                    if (pendingPromise[0] != null) {
+                        pendingPromise[0].resolve(serviceInfoToMap(bonjourService));
+                        pendingPromise[0] = null;
+                    }
                 }, throwable -> {
                     Log.e("TAG", "error", throwable);
-                });
+                    zeroconfModule.sendEvent(reactApplicationContext, ZeroconfModule.EVENT_ERROR, "Registering service failed: " + throwable.getMessage());
 
-        mRegisteredDisposables.put(name, registerDisposable);
+                    if (pendingPromise[0] != null) {
+                        pendingPromise[0].reject(ZeroconfErrors.fromThrowable(throwable), throwable.getMessage(), throwable);
+                        pendingPromise[0] = null;
+                    }
+                });
     }
 
     private Map<String, String> getTxtRecordMap(ReadableMap txt) {
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2016 Andriy Druk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.druk.dnssd;
+
+/**
+ * A {@link BrowseListener} that is also told where the bursts of replies end. The replies of a
+ * burst, held by the daemon's {@link DNSSD#MORE_COMING} flag, are delivered one after the other
+ * in the same handler message, followed by a call to {@link #burstEnded(DNSSDService)}.
+ */
+public interface BrowseBurstListener extends BrowseListener {
+
+    /** Called on the handler thread after the last reply of a burst. */
+    void burstEnded(DNSSDService browser);
+}
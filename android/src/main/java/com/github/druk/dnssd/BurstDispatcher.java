@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Andriy Druk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.druk.dnssd;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Delivers the replies of one operation to its handler, one post per burst instead of one per
+ * reply: replies flagged with {@link DNSSD#MORE_COMING} are held until the daemon sends one
+ * without it, then all of them run in order from a single message. A burst is cut at
+ * {@link #MAX_BURST} replies so the first ones aren't held back for long. Replies of one
+ * operation come from a single thread, the service thread or the embedded loop. An optional
+ * {@code onBurstEnd} runs after each burst, in the same message.
+ */
+class BurstDispatcher {
+
+    static final int MAX_BURST = 64;
+
+    private final Handler handler;
+    private final Runnable onBurstEnd;
+    private List<Runnable> pending = new ArrayList<>();
+
+    BurstDispatcher(Handler handler) {
+        this(handler, null);
+    }
+
+    BurstDispatcher(Handler handler, Runnable onBurstEnd) {
+        this.handler = handler;
+        this.onBurstEnd = onBurstEnd;
+    }
+
+    void dispatch(int flags, Runnable reply) {
+        if ((flags & DNSSD.MORE_COMING) == 0 && pending.isEmpty()) {
+            if (onBurstEnd == null) {
+                handler.post(reply);
+            } else {
+                handler.post(() -> {
+                    reply.run();
+                    onBurstEnd.run();
+                });
+            }
+            return;
+        }
+        pending.add(reply);
+        if ((flags & DNSSD.MORE_COMING) == 0 || pending.size() >= MAX_BURST) {
+            final List<Runnable> burst = pending;
+            pending = new ArrayList<>();
+            handler.post(() -> {
+                for (Runnable runnable : burst) {
+                    runnable.run();
+                }
+                if (onBurstEnd != null) {
+                    onBurstEnd.run();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Andriy Druk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.druk.dnssd;
+
+import java.nio.charset.Charset;
+
+/**
+ * Bounded cache of the strings decoded from the UTF-8 bytes handed over by the daemon. The
+ * same reg types, domains and TXT keys come back with every callback, a hit returns the
+ * previous String without decoding or allocating anything. A miss allocates a key copy on top
+ * of the String, so it is only worth it for such low-cardinality strings.
+ * <p>
+ * The cache is direct mapped: a slot is picked by the hash of the bytes and a miss replaces
+ * it, so its size never grows. Slots hold immutable entries, callbacks of different threads
+ * may race on a slot and at worst decode the same string twice.
+ */
+final class ByteStringInterner {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final class Entry {
+        final byte[] bytes;
+        final int hash;
+        final String string;
+
+        Entry(byte[] bytes, int hash, String string) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.string = string;
+        }
+    }
+
+    private final Entry[] entries;
+    private final int mask;
+    private final int maxLength;
+
+    /**
+     * @param capacity  number of slots, rounded up to a power of two.
+     * @param maxLength longest byte sequence cached, longer ones are decoded every time.
+     */
+    ByteStringInterner(int capacity, int maxLength) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+        this.maxLength = maxLength;
+    }
+
+    String intern(byte[] bytes) {
+        return intern(bytes, 0, bytes.length);
+    }
+
+    String intern(byte[] bytes, int offset, int length) {
+        if (length > maxLength) {
+            return new String(bytes, offset, length, UTF_8);
+        }
+        int hash = hash(bytes, offset, length);
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        Entry entry = entries[slot];
+        if (entry != null && entry.hash == hash && matches(entry.bytes, bytes, offset, length)) {
+            return entry.string;
+        }
+        byte[] key = new byte[length];
+        System.arraycopy(bytes, offset, key, 0, length);
+        String string = new String(key, UTF_8);
+        entries[slot] = new Entry(key, hash, string);
+        return string;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    private static boolean matches(byte[] key, byte[] bytes, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
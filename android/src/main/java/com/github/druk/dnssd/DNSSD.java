@@ -17,13 +17,12 @@
 package com.github.druk.dnssd;
 
 import android.content.Context;
-import android.net.wifi.WifiManager;
 import android.os.Handler;
 import android.os.Looper;
-import android.text.TextUtils;
 import android.util.Log;
 
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -31,6 +30,9 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
 
     public static final int DNSSD_DEFAULT_TIMEOUT = 60 * 1000; // 60 sec
 
+    /** Default timeout of the A and AAAA queries, the same as the other operations. */
+    public static final int DNSSD_ADDRESS_QUERY_TIMEOUT = DNSSD_DEFAULT_TIMEOUT;
+
     /**	Flag indicates to a {@link BrowseListener} that another result is
      queued. Applications should not update their UI to display browse
      results if the MORE_COMING flag is set; they will be called at least once
@@ -69,17 +71,27 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
     /** Pass for ifIndex to specify the localhost interface. */
     public static final int     LOCALHOST_ONLY = -1;
 
-    private static final Charset UTF_8 = Charset.forName("UTF-8");
-    private static final String MULTICAST_LOCK_NAME = "com.github.druk.dnssd.DNSSD";
+    /**
+     * Decodes the reg types, domains and TXT keys, which repeat across callbacks. Service and
+     * host names are mostly distinct, they are decoded directly rather than evicting these.
+     */
+    private static final ByteStringInterner STRINGS = new ByteStringInterner(1024, 255);
 
     private final Handler handler;
     private final Context context;
 
-    // Lock for multicast packages
-    private volatile WifiManager.MulticastLock multicastLock = null;
+    // Shared lock for multicast packages
+    private volatile MulticastLockCoordinator multicastLock = null;
+
+    /** Deadlines of the resolve and query operations of every instance. */
+    private static final TimeoutWheel TIMEOUTS = new TimeoutWheel("DNSSD-Timeouts");
 
-    /** Timeout for resolve and query records operations. Default value: {@value #DNSSD_DEFAULT_TIMEOUT} */
-    private final int serviceTimeout;
+    /** Timeout for resolve operations. Default value: {@value #DNSSD_DEFAULT_TIMEOUT} */
+    private volatile int resolveTimeout;
+    /** Timeout for A and AAAA queries. Default value: {@value #DNSSD_ADDRESS_QUERY_TIMEOUT} */
+    private volatile int addressQueryTimeout;
+    /** Timeout for the other queries, e.g. TXT. Default value: {@value #DNSSD_DEFAULT_TIMEOUT} */
+    private volatile int recordQueryTimeout;
 
     DNSSD(Context context, String lib) {
         this(context, lib, Looper.getMainLooper());
@@ -89,21 +101,46 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
         this.context = context.getApplicationContext();
         InternalDNSSD.init(lib);
         this.handler = new Handler(looper);
-        this.serviceTimeout = DNSSD_DEFAULT_TIMEOUT;
+        setTimeouts(DNSSD_DEFAULT_TIMEOUT, DNSSD_ADDRESS_QUERY_TIMEOUT, DNSSD_DEFAULT_TIMEOUT);
     }
 
     DNSSD(Context context, String lib, Handler handler) {
         this.context = context.getApplicationContext();
         InternalDNSSD.init(lib);
         this.handler = handler;
-        this.serviceTimeout = DNSSD_DEFAULT_TIMEOUT;
+        setTimeouts(DNSSD_DEFAULT_TIMEOUT, DNSSD_ADDRESS_QUERY_TIMEOUT, DNSSD_DEFAULT_TIMEOUT);
     }
 
     DNSSD(Context context, String lib, Handler handler, int serviceTimeout) {
         this.context = context.getApplicationContext();
         InternalDNSSD.init(lib);
         this.handler = handler;
-        this.serviceTimeout = serviceTimeout;
+        setTimeouts(serviceTimeout, serviceTimeout, serviceTimeout);
+    }
+
+    /**
+     * Set the timeouts after which resolve and auto-stopped query operations are stopped, they
+     * apply to the operations started afterwards.
+     *
+     * @param resolveMs      timeout of resolve operations.
+     * @param addressQueryMs timeout of A and AAAA queries.
+     * @param recordQueryMs  timeout of the other queries, e.g. TXT.
+     */
+    public void setTimeouts(int resolveMs, int addressQueryMs, int recordQueryMs) {
+        this.resolveTimeout = resolveMs;
+        this.addressQueryTimeout = addressQueryMs;
+        this.recordQueryTimeout = recordQueryMs;
+    }
+
+    /**
+     * @return the timeout of a query for records of {@code rrtype}.
+     */
+    public int getQueryTimeout(int rrtype) {
+        return rrtype == NSType.A || rrtype == NSType.AAAA ? addressQueryTimeout : recordQueryTimeout;
+    }
+
+    public int getResolveTimeout() {
+        return resolveTimeout;
     }
 
     /** Browse for instances of a service.<P>
@@ -130,6 +167,7 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
      <P>
      @param	listener
      This object will get called when instances of the service are discovered (or disappear).
+     A {@link BrowseBurstListener} is also told where each burst of replies ends.
      <P>
      @return		A {@link InternalDNSSDService} that represents the active browse operation.
 
@@ -139,26 +177,31 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
     public DNSSDService browse(int flags, int ifIndex, String regType, String domain, final BrowseListener listener) throws DNSSDException {
         onServiceStarting();
         final InternalDNSSDService[] services = new InternalDNSSDService[1];
+        final BurstDispatcher dispatcher = listener instanceof BrowseBurstListener
+                ? new BurstDispatcher(handler, () -> ((BrowseBurstListener) listener).burstEnded(services[0]))
+                : new BurstDispatcher(handler);
         services[0] = new InternalDNSSDService(this, InternalDNSSD.browse(flags, ifIndex, regType, domain, new InternalBrowseListener() {
             @Override
-            public void serviceFound(final DNSSDService browser, final int flags, final int ifIndex, final byte[] serviceName, final byte[] regType, final byte[] domain) {
-                final String serviceNameStr = new String(serviceName, UTF_8);
-                final String regTypeStr = new String(regType, UTF_8);
-                final String domainStr = new String(domain, UTF_8);
-                handler.post(() -> listener.serviceFound(services[0], flags, ifIndex, serviceNameStr, regTypeStr, domainStr));
+            public void serviceFound(final DNSSDService browser, final int flags, final int ifIndex, byte[] buffer,
+                                     int serviceNameLength, int regTypeLength, int domainLength) {
+                final String serviceNameStr = new String(buffer, 0, serviceNameLength, StandardCharsets.UTF_8);
+                final String regTypeStr = STRINGS.intern(buffer, serviceNameLength, regTypeLength);
+                final String domainStr = STRINGS.intern(buffer, serviceNameLength + regTypeLength, domainLength);
+                dispatcher.dispatch(flags, () -> listener.serviceFound(services[0], flags, ifIndex, serviceNameStr, regTypeStr, domainStr));
             }
 
             @Override
-            public void serviceLost(DNSSDService browser, final int flags, final int ifIndex, byte[] serviceName, byte[] regType, byte[] domain) {
-                final String serviceNameStr = new String(serviceName, UTF_8);
-                final String regTypeStr = new String(regType, UTF_8);
-                final String domainStr = new String(domain, UTF_8);
-                handler.post(() -> listener.serviceLost(services[0], flags, ifIndex, serviceNameStr, regTypeStr, domainStr));
+            public void serviceLost(DNSSDService browser, final int flags, final int ifIndex, byte[] buffer,
+                                    int serviceNameLength, int regTypeLength, int domainLength) {
+                final String serviceNameStr = new String(buffer, 0, serviceNameLength, StandardCharsets.UTF_8);
+                final String regTypeStr = STRINGS.intern(buffer, serviceNameLength, regTypeLength);
+                final String domainStr = STRINGS.intern(buffer, serviceNameLength + regTypeLength, domainLength);
+                dispatcher.dispatch(flags, () -> listener.serviceLost(services[0], flags, ifIndex, serviceNameStr, regTypeStr, domainStr));
             }
 
             @Override
             public void operationFailed(final DNSSDService service, final int errorCode) {
-                handler.post(() -> listener.operationFailed(services[0], errorCode));
+                dispatcher.dispatch(0, () -> listener.operationFailed(services[0], errorCode));
             }
         }));
         return services[0];
@@ -224,18 +267,30 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
      @see    RuntimePermission
      */
     public DNSSDService resolve(int flags, int ifIndex, String serviceName, String regType, String domain, final ResolveListener listener) throws DNSSDException {
+        return resolve(flags, ifIndex, serviceName, regType, domain, resolveTimeout, listener);
+    }
+
+    /** Resolve a service name, like {@link #resolve(int, int, String, String, String, ResolveListener)},
+     stopping the resolve if it hasn't completed after {@code timeout} milliseconds.
+     */
+    public DNSSDService resolve(int flags, int ifIndex, String serviceName, String regType, String domain, int timeout,
+                                final ResolveListener listener) throws DNSSDException {
         onServiceStarting();
         final DNSSDService[] services = new DNSSDService[1];
 
-        final Runnable timeoutRunnable = () -> services[0].stop();
+        // Scheduled once the operation exists, a reply coming first leaves a timeout stopping it twice
+        final TimeoutWheel.Timeout[] timeouts = new TimeoutWheel.Timeout[1];
 
         services[0] = new InternalDNSSDService(this, InternalDNSSD.resolve(flags, ifIndex, serviceName, regType, domain, new InternalResolveListener() {
             @Override
-            public void serviceResolved(final DNSSDService resolver, final int flags, final int ifIndex, byte[] fullName, byte[] hostName, final int port, TXTRecord txtRecord) {
-                final String fullNameStr =  new String(fullName, UTF_8);
-                final String hostNameStr =  new String(hostName, UTF_8);
-                final Map<String, String> record = parseTXTRecords(txtRecord);
-                handler.removeCallbacks(timeoutRunnable);
+            public void serviceResolved(final DNSSDService resolver, final int flags, final int ifIndex, byte[] buffer,
+                                        int fullNameLength, int hostNameLength, final int port, int txtRecordLength) {
+                final String fullNameStr = new String(buffer, 0, fullNameLength, StandardCharsets.UTF_8);
+                final String hostNameStr = new String(buffer, fullNameLength, hostNameLength, StandardCharsets.UTF_8);
+                final Map<String, String> record = parseTXTRecords(buffer, fullNameLength + hostNameLength, txtRecordLength);
+                if (timeouts[0] != null) {
+                    timeouts[0].cancel();
+                }
                 handler.post(() -> {
                     listener.serviceResolved(services[0], flags, ifIndex, fullNameStr, hostNameStr, port, record);
                     services[0].stop();
@@ -244,7 +299,9 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
 
             @Override
             public void operationFailed(final DNSSDService service, final int errorCode) {
-                handler.removeCallbacks(timeoutRunnable);
+                if (timeouts[0] != null) {
+                    timeouts[0].cancel();
+                }
                 handler.post(() -> {
                     listener.operationFailed(services[0], errorCode);
                     services[0].stop();
@@ -252,7 +309,7 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
             }
         }));
 
-        handler.postDelayed(timeoutRunnable, serviceTimeout);
+        timeouts[0] = TIMEOUTS.schedule(timeout, () -> handler.post(() -> services[0].stop()));
         return services[0];
     }
 
@@ -318,9 +375,9 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
 
             @Override
             public void serviceRegistered(DNSSDRegistration registration, final int flags, final byte[] serviceName, byte[] regType, final byte[] domain) {
-                final String serviceNameStr =  new String(serviceName, UTF_8);
-                final String regTypeStr = new String(regType, UTF_8);
-                final String domainStr = new String(domain, UTF_8);
+                final String serviceNameStr = new String(serviceName, StandardCharsets.UTF_8);
+                final String regTypeStr = STRINGS.intern(regType);
+                final String domainStr = STRINGS.intern(domain);
                 handler.post(() -> listener.serviceRegistered(services[0], flags, serviceNameStr, regTypeStr, domainStr));
             }
 
@@ -431,7 +488,7 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
      (usually 1 for the Internet class).
      <P>
      @param	autoStop
-     Stop querying after the first response or timeout
+     Stop querying after the first response or timeout, see {@link #getQueryTimeout(int)}
      <P>
      @param	listener
      This object will get called when the query completes.
@@ -442,17 +499,32 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
      @see    RuntimePermission
      */
     public DNSSDService queryRecord(int flags, int ifIndex, final String serviceName, int rrtype, int rrclass, boolean autoStop, final QueryListener listener) throws DNSSDException {
+        return queryRecord(flags, ifIndex, serviceName, rrtype, rrclass, autoStop, getQueryTimeout(rrtype), listener);
+    }
+
+    /** Query for an arbitrary DNS record, like {@link #queryRecord(int, int, String, int, int, boolean, QueryListener)},
+     with an auto-stopped query stopped if it hasn't been answered after {@code timeout} milliseconds.
+     */
+    public DNSSDService queryRecord(int flags, int ifIndex, final String serviceName, int rrtype, int rrclass, boolean autoStop,
+                                    int timeout, final QueryListener listener) throws DNSSDException {
         onServiceStarting();
         final DNSSDService[] services = new DNSSDService[1];
 
-        final Runnable timeoutRunnable = () -> services[0].stop();
+        // Scheduled once the operation exists, a reply coming first leaves a timeout stopping it twice
+        final TimeoutWheel.Timeout[] timeouts = new TimeoutWheel.Timeout[1];
+        final BurstDispatcher dispatcher = new BurstDispatcher(handler);
 
         services[0] = new InternalDNSSDService(this, InternalDNSSD.queryRecord(flags, ifIndex, serviceName, rrtype, rrclass, new InternalQueryListener() {
             @Override
-            public void queryAnswered(DNSSDService query, final int flags, final int ifIndex, byte[] fullName, final int rrtype, final int rrclass, byte[] rdata, final int ttl) {
-                final String fullNameStr = new String(fullName, UTF_8);
-                handler.removeCallbacks(timeoutRunnable);
-                handler.post(() -> {
+            public void queryAnswered(DNSSDService query, final int flags, final int ifIndex, byte[] buffer, int fullNameLength,
+                                      final int rrtype, final int rrclass, int rdataLength, final int ttl) {
+                final String fullNameStr = new String(buffer, 0, fullNameLength, StandardCharsets.UTF_8);
+                // The listener runs later, the rdata is the only part that has to be copied
+                final byte[] rdata = Arrays.copyOfRange(buffer, fullNameLength, fullNameLength + rdataLength);
+                if (timeouts[0] != null) {
+                    timeouts[0].cancel();
+                }
+                dispatcher.dispatch(flags, () -> {
                     listener.queryAnswered(services[0], flags, ifIndex, fullNameStr, rrtype, rrclass, rdata, ttl);
                     if (autoStop) {
                         services[0].stop();
@@ -462,8 +534,10 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
 
             @Override
             public void operationFailed(DNSSDService service, final int errorCode) {
-                handler.removeCallbacks(timeoutRunnable);
-                handler.post(() -> {
+                if (timeouts[0] != null) {
+                    timeouts[0].cancel();
+                }
+                dispatcher.dispatch(0, () -> {
                     listener.operationFailed(services[0], errorCode);
                     services[0].stop();
                 });
@@ -471,7 +545,7 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
         }));
 
         if (autoStop) {
-            handler.postDelayed(timeoutRunnable, serviceTimeout);
+            timeouts[0] = TIMEOUTS.schedule(timeout, () -> handler.post(() -> services[0].stop()));
         }
 
         return services[0];
@@ -506,13 +580,13 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
         services[0] = new InternalDNSSDService(this, InternalDNSSD.enumerateDomains(flags, ifIndex, new InternalDomainListener() {
             @Override
             public void domainFound(DNSSDService domainEnum, final int flags, final int ifIndex, byte[] domain) {
-                final String domainStr = new String(domain, UTF_8);
+                final String domainStr = STRINGS.intern(domain);
                 handler.post(() -> listener.domainFound(services[0], flags, ifIndex, domainStr));
             }
 
             @Override
             public void domainLost(DNSSDService domainEnum, final int flags, final int ifIndex, byte[] domain) {
-                final String domainStr = new String(domain, UTF_8);
+                final String domainStr = STRINGS.intern(domain);
                 handler.post(() -> listener.domainLost(services[0], flags, ifIndex, domainStr));
             }
 
@@ -591,18 +665,7 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
     @Override
     public void onServiceStarting() {
         if (multicastLock == null) {
-            synchronized (this) { // Double-check lock
-                if (multicastLock == null) {
-                    WifiManager wifi = (WifiManager) context.getApplicationContext()
-                            .getSystemService(Context.WIFI_SERVICE);
-                    if (wifi == null) {
-                        Log.wtf("DNSSD", "Can't get WIFI Service");
-                        return;
-                    }
-                    multicastLock = wifi.createMulticastLock(MULTICAST_LOCK_NAME);
-                    multicastLock.setReferenceCounted(true);
-                }
-            }
+            multicastLock = MulticastLockCoordinator.getInstance(context);
         }
         multicastLock.acquire();
     }
@@ -629,20 +692,55 @@ public abstract class DNSSD implements InternalDNSSDService.DnssdServiceListener
         return InternalDNSSD.getIfIndexForName(ifName);
     }
 
+    /** Return the symbolic name of a DNS-SD error code (e.g. "NO_SUCH_NAME").<P>
+     @param	errorCode
+     An error code, as passed to operationFailed() or returned by {@link DNSSDException#getErrorCode}.
+     <P>
+     @return		The name of the error, or null if the code is not a DNS-SD error.
+     */
+    public static String getErrorName(int errorCode) {
+        return InternalDNSSD.getErrorName(errorCode);
+    }
+
+    /** Create the exception describing a DNS-SD error code, e.g. the one passed to operationFailed().<P>
+     @param	errorCode
+     The DNS-SD error code.
+     <P>
+     @return		A {@link DNSSDException} carrying the error code.
+     */
+    public static DNSSDException createException(int errorCode) {
+        return InternalDNSSD.createException(errorCode);
+    }
+
+    /**
+     * Parse TXT record data in a single pass, the keys are interned as they repeat across
+     * services. A key without "=" has a null value, a truncated entry ends the parsing.
+     */
     public static Map<String, String> parseTXTRecords(byte[] data) {
-        return parseTXTRecords(new TXTRecord(data));
+        return parseTXTRecords(data, 0, data.length);
     }
 
-    static Map<String, String> parseTXTRecords(TXTRecord record) {
-        Map<String, String> result = new HashMap<>(record.size());
-        for (int i = 0; i < record.size(); i++) {
-            try {
-                if (!TextUtils.isEmpty(record.getKey(i))) {
-                    result.put(record.getKey(i), record.getValueAsString(i));
-                }
-            } catch (Exception e) {
-                Log.w("RxResolveListener", "Parsing error of " + i + " TXT record", e);
+    static Map<String, String> parseTXTRecords(byte[] data, int offset, int length) {
+        Map<String, String> result = new HashMap<>();
+        int limit = offset + length;
+        int start = offset;
+        for (int i = 0; start < limit; i++) {
+            int entryLength = data[start] & 0xFF;
+            int end = start + 1 + entryLength;
+            if (end > limit) {
+                Log.w("RxResolveListener", "Parsing error of " + i + " TXT record: truncated");
+                break;
+            }
+            int keyEnd = start + 1;
+            while (keyEnd < end && data[keyEnd] != '=') {
+                keyEnd++;
+            }
+            if (keyEnd > start + 1) {
+                String key = STRINGS.intern(data, start + 1, keyEnd - start - 1);
+                String value = keyEnd < end ? new String(data, keyEnd + 1, end - keyEnd - 1, StandardCharsets.UTF_8) : null;
+                result.put(key, value);
             }
+            start = end;
         }
         return result;
     }
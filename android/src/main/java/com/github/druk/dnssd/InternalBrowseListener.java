@@ -37,17 +37,23 @@ interface InternalBrowseListener extends BaseListener
 					The interface on which the service is advertised. This index should be passed 
 					to {@link InternalDNSSD#resolve} when resolving the service.
 		<P>
-		@param	serviceName
-					The service name discovered.
+		@param	buffer
+					Holds the UTF-8 service name discovered, registration type, as passed in
+					to DNSSD.browse(), and domain in which the service was discovered, one
+					after the other. The buffer is reused by the next result, it must not be
+					kept after this call returns.
 		<P>
-		@param	regType
-					The registration type, as passed in to DNSSD.browse().
+		@param	serviceNameLength
+					Length of the service name, at the start of the buffer.
 		<P>
-		@param	domain
-					The domain in which the service was discovered.
+		@param	regTypeLength
+					Length of the registration type, following the service name.
+		<P>
+		@param	domainLength
+					Length of the domain, following the registration type.
 	*/
 	void	serviceFound(DNSSDService browser, int flags, int ifIndex,
-                         byte[] serviceName, byte[] regType, byte[] domain);
+                         byte[] buffer, int serviceNameLength, int regTypeLength, int domainLength);
 
 	/** Called to report services which have been deregistered.<P> 
 
@@ -60,17 +66,21 @@ interface InternalBrowseListener extends BaseListener
 		@param	ifIndex
 					The interface on which the service is advertised.
 		<P>
-		@param	serviceName
-					The service name which has deregistered.
+		@param	buffer
+					Holds the service name which has deregistered, registration type and
+					domain, laid out as for {@link #serviceFound}.
+		<P>
+		@param	serviceNameLength
+					Length of the service name, at the start of the buffer.
 		<P>
-		@param	regType
-					The registration type, as passed in to DNSSD.browse().
+		@param	regTypeLength
+					Length of the registration type, following the service name.
 		<P>
-		@param	domain
-					The domain in which the service was discovered.
+		@param	domainLength
+					Length of the domain, following the registration type.
 	*/
 	void	serviceLost(DNSSDService browser, int flags, int ifIndex,
-                        byte[] serviceName, byte[] regType, byte[] domain);
+                        byte[] buffer, int serviceNameLength, int regTypeLength, int domainLength);
 }
 
 //CHECKSTYLE:ON
\ No newline at end of file
@@ -22,6 +22,9 @@
 
 package com.github.druk.dnssd;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
 // I don't want to change Apple source code
 //CHECKSTYLE:OFF
 
@@ -407,6 +410,19 @@ abstract class InternalDNSSD
 										int rrclass, byte[] rdata)
 	{ return getInstance()._reconfirmRecord( flags, ifIndex, fullName, rrtype, rrclass, rdata); }
 
+	/** Create the exception describing a DNS-SD error code.<P>
+		@param	errorCode
+					The DNS-SD error code.
+		<P>
+		@return		A {@link DNSSDException} carrying the error code.
+	*/
+	static DNSSDException	createException( int errorCode)
+	{ return new AppleDNSSDException( errorCode); }
+
+	/** Return the symbolic name of a DNS-SD error code, or null if it isn't one. */
+	static String			getErrorName( int errorCode)
+	{ return AppleDNSSDException.getErrorName( errorCode); }
+
 	/** Return the canonical name of a particular interface index.<P>
 		@param	ifIndex
 					A valid interface index. Must not be ALL_INTERFACES.
@@ -501,43 +517,52 @@ class	AppleDNSSDException extends DNSSDException
 
 	public int					getErrorCode() { return fErrorCode; }
 
+	static final String	kMessages[] = {		// should probably be put into a resource or something
+		"UNKNOWN",
+		"NO_SUCH_NAME",
+		"NO_MEMORY",
+		"BAD_PARAM",
+		"BAD_REFERENCE",
+		"BAD_STATE",
+		"BAD_FLAGS",
+		"UNSUPPORTED",
+		"NOT_INITIALIZED",
+		"NO_CACHE",
+		"ALREADY_REGISTERED",
+		"NAME_CONFLICT",
+		"INVALID",
+		"FIREWALL",
+		"INCOMPATIBLE",
+		"BAD_INTERFACE_INDEX",
+		"REFUSED",
+		"NOSUCHRECORD",
+		"NOAUTH",
+		"NOSUCHKEY",
+		"NATTRAVERSAL",
+		"DOUBLENAT",
+		"BADTIME",
+		"BADSIG",
+		"BADKEY",
+		"TRANSIENT",
+		"SERVICENOTRUNNING",
+		"NATPORTMAPPINGUNSUPPORTED",
+		"NATPORTMAPPINGDISABLED"
+	};
+
+	// Returns the symbolic name of an error code, or null if it isn't a known DNS-SD error.
+	static String				getErrorName( int errorCode)
+	{
+		if (errorCode <= UNKNOWN && errorCode > ( UNKNOWN - kMessages.length))
+			return kMessages[ UNKNOWN - errorCode];
+		return null;
+	}
+
 	public String				getMessage()
 	{
-		final String	kMessages[] = {		// should probably be put into a resource or something
-			"UNKNOWN",
-			"NO_SUCH_NAME",
-			"NO_MEMORY",
-			"BAD_PARAM",
-			"BAD_REFERENCE",
-			"BAD_STATE",
-			"BAD_FLAGS",
-			"UNSUPPORTED",
-			"NOT_INITIALIZED",
-			"NO_CACHE",
-			"ALREADY_REGISTERED",
-			"NAME_CONFLICT",
-			"INVALID",
-			"FIREWALL",
-			"INCOMPATIBLE",
-			"BAD_INTERFACE_INDEX",
-			"REFUSED",
-			"NOSUCHRECORD",
-			"NOAUTH",
-			"NOSUCHKEY",
-			"NATTRAVERSAL",
-			"DOUBLENAT",
-			"BADTIME",
-			"BADSIG",
-			"BADKEY",
-			"TRANSIENT",
-			"SERVICENOTRUNNING",
-			"NATPORTMAPPINGUNSUPPORTED",
-			"NATPORTMAPPINGDISABLED"
-		};
-	
-		if (fErrorCode <= UNKNOWN && fErrorCode > ( UNKNOWN - kMessages.length))
+		String	name = getErrorName( fErrorCode);
+		if (name != null)
 		{
-			return "DNS-SD Error " + String.valueOf( fErrorCode) + ": " + kMessages[ UNKNOWN - fErrorCode];
+			return "DNS-SD Error " + String.valueOf( fErrorCode) + ": " + name;
 		}
 		else
 			return super.getMessage() + "(" + String.valueOf( fErrorCode) + ")";
@@ -644,17 +669,69 @@ class	AppleDNSSD extends InternalDNSSD
 
 class	AppleService implements DNSSDService, Runnable
 {
+	// Operation states. A stop during a dispatch is only requested, the service thread halts the
+	// operation once the dispatch is done; the stopping thread waits for that, without a lock, so
+	// no reply is delivered after stop() returns.
+	private static final int	IDLE = 0;
+	private static final int	DISPATCHING = 1;
+	private static final int	STOP_REQUESTED = 2;
+	private static final int	STOPPED = 3;
+
 	public					AppleService(BaseListener listener)	{ fNativeContext = 0; fListener = listener; }
 
-	public void				stop() { this.HaltOperation(); }
+	public void				stop()
+	{
+		while ( true)
+		{
+			int		state = fState.get();
+			if ( state == IDLE || ( state == DISPATCHING && Thread.currentThread() == fDispatcher))
+			{
+				// Nothing is dispatching, or a callback is stopping its own operation
+				if ( fState.compareAndSet( state, STOPPED))
+				{
+					this.HaltOperation();
+					return;
+				}
+			}
+			else if ( state == DISPATCHING)
+			{
+				if ( fState.compareAndSet( DISPATCHING, STOP_REQUESTED))
+				{
+					awaitDispatchEnd();
+					return;
+				}
+			}
+			else
+			{
+				if ( state == STOP_REQUESTED && Thread.currentThread() != fDispatcher)
+					awaitDispatchEnd();
+				return;		// Already stopping or stopped
+			}
+		}
+	}
+
+	/* Wait until the service thread has finished its dispatch and halted the operation. */
+	private void			awaitDispatchEnd()
+	{
+		for ( int spins = 0; fState.get() == STOP_REQUESTED; spins++)
+		{
+			if ( spins < 100)
+				Thread.yield();
+			else
+				LockSupport.parkNanos( 100000);
+		}
+	}
+
+	/* Return the socket of the operation, or -1 if it has none. */
+	protected native int	SocketFD();
 
-	/* Block until data arrives, or one second passes. Returns 1 if data present, 0 otherwise. */
-	protected native int	BlockForData();
+	/* Block until data arrives on sd, or one second passes. Returns 1 if data present, 0 otherwise. */
+	protected native int	BlockForData( int sd);
 
 	/* Call ProcessResults when data appears on socket descriptor. */
 	protected native int	ProcessResults();
 
-	protected synchronized native void HaltOperation();
+	protected native void	HaltOperation();
 
 	protected void			ThrowOnErr( int rc) throws DNSSDException
 	{
@@ -662,42 +739,67 @@ class	AppleService implements DNSSDService, Runnable
 			throw new AppleDNSSDException( rc);
 	}
 
+	/* Start the thread dispatching the replies, unless the library calls back on its own. */
+	protected void			startServiceThread()
+	{
+		if (!AppleDNSSD.hasAutoCallbacks)
+		{
+			fSocket = this.SocketFD();
+			new Thread(this).start();
+		}
+	}
+
 	protected long	/* warning */	fNativeContext;		// Private storage for native side
 
+	private final AtomicInteger		fState = new AtomicInteger( IDLE);
+	private volatile Thread			fDispatcher;
+	private int						fSocket = -1;
+
 	public void		run()
 	{
 		while ( true )
 		{
 			// Note: We want to allow our DNS-SD operation to be stopped from other threads, so we have to
-			// block waiting for data *outside* the synchronized section. Because we're doing this unsynchronized
-			// we have to write some careful code. Suppose our DNS-SD operation is stopped from some other thread,
-			// and then immediately afterwards that thread (or some third, unrelated thread) starts a new DNS-SD
-			// operation. The Unix kernel always allocates the lowest available file descriptor to a new socket,
-			// so the same file descriptor is highly likely to be reused for the new operation, and if our old
-			// stale ServiceThread accidentally consumes bytes off that new socket we'll get really messed up.
-			// To guard against that, before calling ProcessResults we check to ensure that our
-			// fNativeContext has not been deleted, which is a telltale sign that our operation was stopped.
-			// After calling ProcessResults we check again, because it's extremely common for callback
-			// functions to stop their own operation and start others. For example, a resolveListener callback
-			// may well stop the resolve and then start a QueryRecord call to monitor the TXT record.
+			// block waiting for data without holding anything. Suppose our DNS-SD operation is stopped from
+			// some other thread, and then immediately afterwards that thread (or some third, unrelated thread)
+			// starts a new DNS-SD operation. The Unix kernel always allocates the lowest available file
+			// descriptor to a new socket, so the same file descriptor is highly likely to be reused for the
+			// new operation, and if our old stale ServiceThread accidentally consumes bytes off that new
+			// socket we'll get really messed up.
 			//
-			// The remaining risk is that between our checking fNativeContext and calling ProcessResults(),
-			// some other thread could stop the operation and start a new one using same file descriptor, and
-			// we wouldn't know. To prevent this, the AppleService object's HaltOperation() routine is declared
-			// synchronized and we perform our checks synchronized on the AppleService object, which ensures
-			// that HaltOperation() can't execute while we're doing it. Because Java locks are re-entrant this
-			// locking DOESN'T prevent the callback routine from stopping its own operation, but DOES prevent
-			// any other thread from stopping it until after the callback has completed and returned to us here.
-
-			int result = BlockForData();
-			synchronized (this)
+			// To guard against that, we only call ProcessResults after atomically moving the operation from
+			// IDLE to DISPATCHING. Once stopped, the operation never goes back to IDLE, so a stale thread
+			// fails that transition and terminates without touching the socket, whatever it is now. And
+			// while we are DISPATCHING no other thread halts the operation, it only requests the stop, so the
+			// socket can't be closed and reused under ProcessResults; we halt the operation ourselves once
+			// the dispatch is done, while the stopping thread waits for it. A callback may still stop its own
+			// operation, that is detected by ProcessResults and below. None of this takes a lock, and a
+			// dispatch never waits for a stop.
+
+			int result = BlockForData( fSocket);
+			if ( result == 0)
+			{
+				if ( fState.get() != IDLE) break;	// Some other thread stopped our DNSSD operation; time to terminate this thread
+				continue;							// No data, go back and block again
+			}
+			if ( !fState.compareAndSet( IDLE, DISPATCHING)) break;	// Stopped; the data may even belong to another operation
+
+			fDispatcher = Thread.currentThread();
+			result = ProcessResults();
+			fDispatcher = null;
+
+			if ( !fState.compareAndSet( DISPATCHING, IDLE))
 			{
-				if (fNativeContext == 0) break;	// Some other thread stopped our DNSSD operation; time to terminate this thread
-				if (result == 0) continue;		// If BlockForData() said there was no data, go back and block again
-				result = ProcessResults();
-				if (fNativeContext == 0) break;	// Event listener stopped its own DNSSD operation; terminate this thread
-				if (result != 0) { fListener.operationFailed(this, result); break; }	// If error, notify listener
+				// Either the event listener stopped its own DNSSD operation, or another thread asked for it
+				// and waits until the operation is halted. Only this thread leaves STOP_REQUESTED.
+				if ( fState.get() == STOP_REQUESTED)
+				{
+					this.HaltOperation();
+					fState.set( STOPPED);
+				}
+				break;
 			}
+			if (result != 0) { fListener.operationFailed(this, result); break; }	// If error, notify listener
 		}
 	}
 
@@ -712,8 +814,7 @@ class	AppleBrowser extends AppleService
 	{
 		super(client);
 		this.ThrowOnErr( this.CreateBrowser( flags, ifIndex, regType, domain));
-		if (!AppleDNSSD.hasAutoCallbacks)
-			new Thread(this).start();
+		this.startServiceThread();
 	}
 
 	// Sets fNativeContext. Returns non-zero on error.
@@ -728,8 +829,7 @@ class	AppleResolver extends AppleService
 	{
 		super(client);
 		this.ThrowOnErr( this.CreateResolver( flags, ifIndex, serviceName, regType, domain));
-		if (!AppleDNSSD.hasAutoCallbacks)
-			new Thread(this).start();
+		this.startServiceThread();
 	}
 
 	// Sets fNativeContext. Returns non-zero on error.
@@ -780,8 +880,7 @@ class	AppleRegistration extends AppleService implements DNSSDRegistration
 	{
 		super(client);
 		this.ThrowOnErr( this.BeginRegister( ifIndex, flags, serviceName, regType, domain, host, port, txtRecord));
-		if (!AppleDNSSD.hasAutoCallbacks)
-			new Thread(this).start();
+		this.startServiceThread();
 	}
 
 	public DNSRecord	addRecord( int flags, int rrType, byte[] rData, int ttl)
@@ -814,8 +913,7 @@ class	AppleRecordRegistrar extends AppleService implements DNSSDRecordRegistrar
 	{
 		super(listener);
 		this.ThrowOnErr( this.CreateConnection());
-		if (!AppleDNSSD.hasAutoCallbacks)
-			new Thread(this).start();
+		this.startServiceThread();
 	}
 
 	public DNSRecord	registerRecord( int flags, int ifIndex, String fullname, int rrtype,
@@ -844,8 +942,7 @@ class	AppleQuery extends AppleService
 	{
 		super(client);
 		this.ThrowOnErr( this.CreateQuery( flags, ifIndex, serviceName, rrtype, rrclass));
-		if (!AppleDNSSD.hasAutoCallbacks)
-			new Thread(this).start();
+		this.startServiceThread();
 	}
 
 	// Sets fNativeContext. Returns non-zero on error.
@@ -859,8 +956,7 @@ class	AppleDomainEnum extends AppleService
 	{
 		super(client);
 		this.ThrowOnErr( this.BeginEnum( flags, ifIndex));
-		if (!AppleDNSSD.hasAutoCallbacks)
-			new Thread(this).start();
+		this.startServiceThread();
 	}
 
 	// Sets fNativeContext. Returns non-zero on error.
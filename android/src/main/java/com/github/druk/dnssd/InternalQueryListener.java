@@ -39,8 +39,13 @@ interface InternalQueryListener extends BaseListener
 					The interface on which the query was resolved. (The index for a given 
 					interface is determined via the if_nametoindex() family of calls.) 
 		<P>
-		@param	fullName
-					The resource record's full domain name.
+		@param	buffer
+					Holds the UTF-8 full domain name of the resource record followed by
+					its raw rdata. The buffer is reused by the next answer, it must not be
+					kept after this call returns.
+		<P>
+		@param	fullNameLength
+					Length of the resource record's full domain name, at the start of the buffer.
 		<P>
 		@param	rrtype
 					The resource record's type (e.g. PTR, SRV, etc) as defined by RFC 1035 and its updates.
@@ -48,14 +53,14 @@ interface InternalQueryListener extends BaseListener
 		@param	rrclass
 					The class of the resource record, as defined by RFC 1035 and its updates.
 		<P>
-		@param	rdata
-					The raw rdata of the resource record.
+		@param	rdataLength
+					Length of the raw rdata of the resource record, following the full name.
 		<P>
 		@param	ttl
 					The resource record's time to live, in seconds.
 	*/
-	void	queryAnswered(DNSSDService query, int flags, int ifIndex, byte[] fullName,
-                          int rrtype, int rrclass, byte[] rdata, int ttl);
+	void	queryAnswered(DNSSDService query, int flags, int ifIndex, byte[] buffer, int fullNameLength,
+                          int rrtype, int rrclass, int rdataLength, int ttl);
 }
 
 //CHECKSTYLE:ON
\ No newline at end of file
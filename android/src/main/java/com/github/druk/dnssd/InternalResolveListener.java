@@ -32,8 +32,13 @@ interface InternalResolveListener extends BaseListener
 		@param	flags
 					Currently unused, reserved for future use.
 		<P>
-		@param	fullName
-					The full service domain name, in the form &lt;servicename&gt;.&lt;protocol&gt;.&lt;domain&gt;.
+		@param	buffer
+					Holds the UTF-8 full name, host name and raw TXT record one after the
+					other. The buffer is reused by the next result, it must not be kept
+					after this call returns.
+		<P>
+		@param	fullNameLength
+					Length of the full service domain name, at the start of the buffer. It has the form &lt;servicename&gt;.&lt;protocol&gt;.&lt;domain&gt;.
 					(Any literal dots (".") are escaped with a backslash ("\."), and literal
 					backslashes are escaped with a second backslash ("\\"), e.g. a web server
 					named "Dr. Pepper" would have the fullname  "Dr\.\032Pepper._http._tcp.local.").
@@ -41,18 +46,18 @@ interface InternalResolveListener extends BaseListener
 					res_query(), or to the special-purpose functions included in this API that
 					take fullname parameters.
 		<P>
-		@param	hostName
-					The target hostname of the machine providing the service.  This name can 
+		@param	hostNameLength
+					Length of the target hostname, following the full name, of the machine providing the service.  This name can 
 					be passed to functions like queryRecord() to look up the host's IP address.
 		<P>
 		@param	port
 					The port number on which connections are accepted for this service.
 		<P>
-		@param	txtRecord
-					The service's primary txt record.
+		@param	txtRecordLength
+					Length of the service's primary txt record, following the host name.
 	*/
-	void	serviceResolved(DNSSDService resolver, int flags, int ifIndex, byte[] fullName,
-                            byte[] hostName, int port, TXTRecord txtRecord);
+	void	serviceResolved(DNSSDService resolver, int flags, int ifIndex, byte[] buffer,
+                            int fullNameLength, int hostNameLength, int port, int txtRecordLength);
 }
 
 //CHECKSTYLE:ON
\ No newline at end of file
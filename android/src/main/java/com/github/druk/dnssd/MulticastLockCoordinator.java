@@ -0,0 +1,114 @@
+package com.github.druk.dnssd;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Process wide owner of the Wi-Fi multicast lock, shared by every operation that needs to
+ * receive multicast packets. Each operation takes a reference while it runs; the lock is
+ * acquired with the first reference and released {@link #RELEASE_DELAY_MS} after the last one
+ * is returned, so back to back operations don't toggle the Wi-Fi multicast filter. It also
+ * measures how long the lock has been held.
+ */
+public class MulticastLockCoordinator {
+    private static final String TAG = "MulticastLock";
+    private static final String LOCK_NAME = "com.github.druk.dnssd.MulticastLockCoordinator";
+
+    /** How long the lock is kept once nothing needs it anymore. */
+    public static final long RELEASE_DELAY_MS = 1000;
+
+    private static MulticastLockCoordinator instance;
+
+    private final WifiManager.MulticastLock lock;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable releaseLock = new Runnable() {
+        @Override
+        public void run() {
+            releaseLock();
+        }
+    };
+    private int references;
+    private boolean held;
+    private long heldSince;
+    private long heldTimeMs;
+    private int acquisitions;
+
+    public static synchronized MulticastLockCoordinator getInstance(Context context) {
+        if (instance == null) {
+            instance = new MulticastLockCoordinator(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MulticastLockCoordinator(Context context) {
+        WifiManager wifi = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        if (wifi == null) {
+            Log.wtf(TAG, "Can't get WIFI Service");
+            lock = null;
+            return;
+        }
+        lock = wifi.createMulticastLock(LOCK_NAME);
+        lock.setReferenceCounted(false);
+    }
+
+    public synchronized void acquire() {
+        references++;
+        handler.removeCallbacks(releaseLock);
+        if (lock == null || held) {
+            return;
+        }
+        lock.acquire();
+        held = true;
+        heldSince = SystemClock.elapsedRealtime();
+        acquisitions++;
+    }
+
+    public synchronized void release() {
+        if (references == 0) {
+            Log.w(TAG, "Multicast lock released more often than acquired");
+            return;
+        }
+        references--;
+        if (references == 0) {
+            handler.postDelayed(releaseLock, RELEASE_DELAY_MS);
+        }
+    }
+
+    private synchronized void releaseLock() {
+        if (references > 0 || !held) {
+            return;
+        }
+        lock.release();
+        held = false;
+        heldTimeMs += SystemClock.elapsedRealtime() - heldSince;
+    }
+
+    public synchronized boolean isHeld() {
+        return held;
+    }
+
+    /**
+     * @return the number of operations currently needing the lock.
+     */
+    public synchronized int getReferences() {
+        return references;
+    }
+
+    /**
+     * @return the total time the lock has been held, including the current hold.
+     */
+    public synchronized long getHeldTimeMs() {
+        return heldTimeMs + (held ? SystemClock.elapsedRealtime() - heldSince : 0);
+    }
+
+    /**
+     * @return how many times the lock has actually been acquired.
+     */
+    public synchronized int getAcquisitions() {
+        return acquisitions;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 Andriy Druk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.druk.dnssd;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel for the deadlines of DNS-SD operations. A timeout lands in the slot of
+ * the tick it expires on, with the number of full turns left, so scheduling and cancelling are
+ * O(1) whatever the number of operations in flight; a cancelled timeout costs nothing more.
+ * Deadlines are rounded up to {@link #TICK_MS}. The wheel is driven by one thread that sleeps
+ * while nothing is scheduled, and runs the expired tasks on that thread.
+ */
+final class TimeoutWheel {
+    private static final String TAG = "TimeoutWheel";
+
+    static final long TICK_MS = 100;
+    static final int SLOTS = 512;
+
+    /** Source of the wheel's time, in milliseconds. */
+    interface Clock {
+        long elapsedRealtime();
+    }
+
+    /** A scheduled task, cancel it once the operation completes. */
+    final class Timeout {
+        private final Runnable task;
+        private long rounds;
+        private int slot = -1;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * @return false if the task already ran or was cancelled.
+         */
+        boolean cancel() {
+            synchronized (TimeoutWheel.this) {
+                if (slot < 0) {
+                    return false;
+                }
+                unlink(this);
+                return true;
+            }
+        }
+    }
+
+    private final Timeout[] slots = new Timeout[SLOTS];
+    private final String name;
+    private final Clock clock;
+    private int cursor;
+    private int pending;
+    private long nextTick;
+    private Thread thread;
+
+    TimeoutWheel(String name) {
+        this(name, SystemClock::elapsedRealtime);
+    }
+
+    TimeoutWheel(String name, Clock clock) {
+        this.name = name;
+        this.clock = clock;
+    }
+
+    /**
+     * Run {@code task} on the wheel thread in {@code delayMs}, unless cancelled before.
+     */
+    synchronized Timeout schedule(long delayMs, Runnable task) {
+        Timeout timeout = new Timeout(task);
+        long now = clock.elapsedRealtime();
+        if (pending == 0) {
+            // The wheel was idle, its clock restarts now
+            nextTick = now + TICK_MS;
+        }
+        // Counted from the next tick, the part of the current one that already elapsed doesn't count
+        long ticks = Math.max(1, (now + delayMs - nextTick + TICK_MS - 1) / TICK_MS + 1);
+        timeout.rounds = (ticks - 1) / SLOTS;
+        timeout.slot = (int) ((cursor + ticks - 1) % SLOTS);
+        timeout.next = slots[timeout.slot];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[timeout.slot] = timeout;
+        pending++;
+
+        if (thread == null) {
+            thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            thread.start();
+        } else if (pending == 1) {
+            notifyAll();
+        }
+        return timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+        pending--;
+    }
+
+    private void run() {
+        List<Runnable> expired = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (pending == 0) {
+                        wait();
+                    }
+                    long now = clock.elapsedRealtime();
+                    while (now < nextTick) {
+                        wait(nextTick - now);
+                        now = clock.elapsedRealtime();
+                    }
+                } catch (InterruptedException e) {
+                    // The next schedule() starts a new thread, which runs what is left on the wheel
+                    thread = null;
+                    return;
+                }
+                // Catch up with every tick that elapsed, e.g. after deep sleep
+                while (nextTick <= clock.elapsedRealtime() && pending > 0) {
+                    expire(expired);
+                    cursor = (cursor + 1) % SLOTS;
+                    nextTick += TICK_MS;
+                }
+            }
+            for (Runnable task : expired) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Timeout task failed", e);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    private void expire(List<Runnable> expired) {
+        Timeout timeout = slots[cursor];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds == 0) {
+                unlink(timeout);
+                expired.add(timeout.task);
+            } else {
+                timeout.rounds--;
+            }
+            timeout = next;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 Andriy Druk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.druk.rx2dnssd;
+
+import androidx.annotation.NonNull;
+
+import com.github.druk.dnssd.DNSSD;
+
+/**
+ * A domain reported by a domain enumeration
+ */
+public class BonjourDomain {
+
+    /**
+     * Flag that indicate that the domain was lost
+     */
+    public static final int LOST = 1 << 8;
+
+    private final int flags;
+    private final int ifIndex;
+    private final String domain;
+
+    public BonjourDomain(int flags, int ifIndex, @NonNull String domain) {
+        this.flags = flags;
+        this.ifIndex = ifIndex;
+        this.domain = domain;
+    }
+
+    /**
+     * Get flags
+     *
+     * @return flags
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Get interface index
+     *
+     * @return interface index
+     */
+    public int getIfIndex() {
+        return ifIndex;
+    }
+
+    /**
+     * Get the domain name
+     *
+     * @return domain name, e.g. "local."
+     */
+    @NonNull
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * Check if the domain is the default one
+     *
+     * @return true if the domain is the default domain
+     */
+    public boolean isDefault() {
+        return (flags & DNSSD.DEFAULT) == DNSSD.DEFAULT;
+    }
+
+    /**
+     * Check if the domain was lost
+     *
+     * @return true if the domain was lost
+     */
+    public boolean isLost() {
+        return (flags & LOST) == LOST;
+    }
+
+    @Override
+    public String toString() {
+        return "BonjourDomain{" +
+                "flags=" + flags +
+                ", ifIndex=" + ifIndex +
+                ", domain='" + domain + '\'' +
+                '}';
+    }
+}
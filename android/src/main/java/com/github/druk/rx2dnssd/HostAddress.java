@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Andriy Druk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.druk.rx2dnssd;
+
+import androidx.annotation.NonNull;
+
+import java.net.InetAddress;
+
+/**
+ * A single address record of a host, as answered by an A or AAAA query
+ */
+public class HostAddress {
+
+    private final String hostname;
+    private final InetAddress address;
+    private final int ifIndex;
+    private final int ttl;
+
+    public HostAddress(@NonNull String hostname, @NonNull InetAddress address, int ifIndex, int ttl) {
+        this.hostname = hostname;
+        this.address = address;
+        this.ifIndex = ifIndex;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Get the queried host name
+     *
+     * @return host name
+     */
+    @NonNull
+    public String getHostname() {
+        return hostname;
+    }
+
+    /**
+     * Get the address of the host
+     *
+     * @return IPv4 or IPv6 address
+     */
+    @NonNull
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Get the interface index the record was received on
+     *
+     * @return interface index
+     */
+    public int getIfIndex() {
+        return ifIndex;
+    }
+
+    /**
+     * Get the time to live of the record
+     *
+     * @return TTL in seconds
+     */
+    public int getTtl() {
+        return ttl;
+    }
+
+    @Override
+    public String toString() {
+        return "HostAddress{" +
+                "hostname='" + hostname + '\'' +
+                ", address=" + address +
+                ", ifIndex=" + ifIndex +
+                ", ttl=" + ttl +
+                '}';
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 Andriy Druk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.druk.rx2dnssd;
+
+import com.github.druk.dnssd.BrowseBurstListener;
+import com.github.druk.dnssd.DNSSD;
+import com.github.druk.dnssd.DNSSDService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.FlowableEmitter;
+
+/**
+ * Like {@link Rx2BrowseListener}, but emits the services of each burst delivered by {@link DNSSD}
+ * as one list. DNSSD already holds the replies flagged {@link DNSSD#MORE_COMING} and runs a burst
+ * in a single handler message, the list only lives until that message ends.
+ */
+class Rx2BatchedBrowseListener implements BrowseBurstListener {
+    private final FlowableEmitter<? super List<BonjourService>> emitter;
+    private List<BonjourService> burst = new ArrayList<>();
+
+    Rx2BatchedBrowseListener(FlowableEmitter<? super List<BonjourService>> emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void serviceFound(DNSSDService browser, int flags, int ifIndex, String serviceName, String regType, String domain) {
+        burst.add(new BonjourService.Builder(flags, ifIndex, serviceName, regType, domain).build());
+    }
+
+    @Override
+    public void serviceLost(DNSSDService browser, int flags, int ifIndex, String serviceName, String regType, String domain) {
+        burst.add(new BonjourService.Builder(flags | BonjourService.LOST, ifIndex, serviceName, regType, domain).build());
+    }
+
+    @Override
+    public void burstEnded(DNSSDService browser) {
+        if (burst.isEmpty()) {
+            return;
+        }
+        List<BonjourService> services = burst;
+        burst = new ArrayList<>();
+        if (!emitter.isCancelled()) {
+            emitter.onNext(services);
+        }
+    }
+
+    @Override
+    public void operationFailed(DNSSDService service, int errorCode) {
+        if (emitter.isCancelled()) {
+            return;
+        }
+        burstEnded(service);
+        emitter.onError(DNSSD.createException(errorCode));
+    }
+}
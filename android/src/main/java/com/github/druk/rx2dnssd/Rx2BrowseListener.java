@@ -16,6 +16,7 @@
 package com.github.druk.rx2dnssd;
 
 import com.github.druk.dnssd.BrowseListener;
+import com.github.druk.dnssd.DNSSD;
 import com.github.druk.dnssd.DNSSDService;
 
 import io.reactivex.FlowableEmitter;
@@ -50,6 +51,6 @@ class Rx2BrowseListener implements BrowseListener {
         if (emitter.isCancelled()) {
             return;
         }
-        emitter.onError(new RuntimeException("DNSSD browse error: " + errorCode));
+        emitter.onError(DNSSD.createException(errorCode));
     }
 }
@@ -15,12 +15,19 @@
  */
 package com.github.druk.rx2dnssd;
 
+import android.content.Context;
+
 import androidx.annotation.NonNull;
 
 import com.github.druk.dnssd.DNSSD;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
 import io.reactivex.Flowable;
 import io.reactivex.FlowableTransformer;
+import io.reactivex.functions.Action;
 
 /**
  * RxDnssd is reactive wrapper for {@link DNSSD}
@@ -42,6 +49,35 @@ public interface Rx2Dnssd {
     @NonNull
     Flowable<BonjourService> browse(@NonNull final String regType, @NonNull final String domain);
 
+    /**
+     * Browse for instances of a service, like {@link #browse(String, String)}.<P>
+     *
+     * @param onStarted Called once the browse operation has been created by the daemon, before any
+     *                  service is reported.
+     * @return A {@link Flowable} that represents the active browse operation.
+     */
+    @NonNull
+    Flowable<BonjourService> browse(@NonNull final String regType, @NonNull final String domain, @NonNull final Action onStarted);
+
+    /**
+     * Browse for instances of a service, like {@link #browse(String, String, Action)}, but report
+     * them in bursts: the services DNSSD delivers together, those flagged with
+     * {@link DNSSD#MORE_COMING} and the first one that isn't, are emitted as one list.<P>
+     *
+     * @return A {@link Flowable} of the found and lost services of each burst.
+     */
+    @NonNull
+    Flowable<List<BonjourService>> browseBatched(@NonNull final String regType, @NonNull final String domain, @NonNull final Action onStarted);
+
+    /**
+     * Enumerate the domains available for browsing or registration.<P>
+     *
+     * @param flags {@link DNSSD#BROWSE_DOMAINS} or {@link DNSSD#REGISTRATION_DOMAINS}.
+     * @return A {@link Flowable} that reports found and lost domains until it is disposed.
+     */
+    @NonNull
+    Flowable<BonjourDomain> enumerateDomains(int flags);
+
     /**
      * Resolve a {@link Flowable} to a target host name, port number, and txt record.<P>
      * <p>
@@ -57,6 +93,20 @@ public interface Rx2Dnssd {
     @NonNull
     FlowableTransformer<BonjourService, BonjourService> resolve();
 
+    /**
+     * Resolve services and query their ipv4 and ipv6 addresses, like {@link #resolve()} followed by
+     * {@link #queryIPRecords()}, but without waiting past a deadline: if the addresses aren't known
+     * by then, the service is emitted as resolved so far, e.g. with its host and port but no
+     * address, and again once its addresses come in.<P>
+     *
+     * @param deadline how long to wait for the complete service.
+     * @param unit     the unit of {@code deadline}.
+     * @return A {@link FlowableTransformer} that transform not resolved object to resolved, possibly
+     * partially at first.
+     */
+    @NonNull
+    FlowableTransformer<BonjourService, BonjourService> resolve(long deadline, @NonNull TimeUnit unit);
+
     /**
      * Query ipv4 and ipv6 addresses
      *
@@ -122,6 +172,88 @@ public interface Rx2Dnssd {
     @NonNull
     Flowable<BonjourService> queryTXTRecords(BonjourService bs);
 
+    /**
+     * Query the addresses of a host name
+     *
+     * @param hostname Full host name, e.g. "printer.local."
+     * @param rrtype {@link com.github.druk.dnssd.NSType#A} or {@link com.github.druk.dnssd.NSType#AAAA}
+     * @param autoStop Stop the query after the first answer or timeout
+     * @return A {@link Flowable} with an item per address record
+     */
+    @NonNull
+    Flowable<HostAddress> queryHostAddresses(@NonNull final String hostname, int rrtype, boolean autoStop);
+
     @NonNull
     Flowable<BonjourService> register(@NonNull final BonjourService bs);
+
+    /**
+     * Ask the daemon to verify the PTR, SRV and address records of a resolved service.
+     * If the records turn out to be stale they are flushed from the cache, and any active
+     * browse reports the service as lost.
+     * <p>
+     * The daemon only reconfirms a record whose rdata matches the cached one. The resolve
+     * reply doesn't carry the SRV priority and weight, so the SRV record is read back from the
+     * cache first; it is skipped if nothing is cached for the service anymore.
+     *
+     * @param bs A resolved {@link BonjourService} (hostname, port and addresses must be known).
+     * @return A {@link Completable} failing with the first {@link com.github.druk.dnssd.DNSSDException}.
+     */
+    @NonNull
+    Completable reconfirm(@NonNull final BonjourService bs);
+
+    /**
+     * Builds a {@link Rx2Dnssd} with its own operation timeouts. A resolve, or a query that
+     * stops after its first answer, is stopped once its timeout elapses without an answer, so a
+     * host that doesn't respond doesn't keep it open for the default minute.
+     */
+    class Builder {
+        private final Context context;
+        private boolean embedded = true;
+        private int resolveTimeout = DNSSD.DNSSD_DEFAULT_TIMEOUT;
+        private int addressQueryTimeout = DNSSD.DNSSD_ADDRESS_QUERY_TIMEOUT;
+        private int txtQueryTimeout = DNSSD.DNSSD_DEFAULT_TIMEOUT;
+
+        public Builder(@NonNull Context context) {
+            this.context = context;
+        }
+
+        /** Use the embedded mDNSResponder, {@link Rx2DnssdEmbedded}, or the system daemon, {@link Rx2DnssdBindable}. Embedded by default. */
+        public Builder embedded(boolean embedded) {
+            this.embedded = embedded;
+            return this;
+        }
+
+        /** Timeout of resolve operations, {@value DNSSD#DNSSD_DEFAULT_TIMEOUT} ms by default. */
+        public Builder resolveTimeout(long timeout, @NonNull TimeUnit unit) {
+            this.resolveTimeout = toMillis(timeout, unit);
+            return this;
+        }
+
+        /** Timeout of A and AAAA queries, {@value DNSSD#DNSSD_ADDRESS_QUERY_TIMEOUT} ms by default. */
+        public Builder addressQueryTimeout(long timeout, @NonNull TimeUnit unit) {
+            this.addressQueryTimeout = toMillis(timeout, unit);
+            return this;
+        }
+
+        /** Timeout of TXT queries, and any other record, {@value DNSSD#DNSSD_DEFAULT_TIMEOUT} ms by default. */
+        public Builder txtQueryTimeout(long timeout, @NonNull TimeUnit unit) {
+            this.txtQueryTimeout = toMillis(timeout, unit);
+            return this;
+        }
+
+        @NonNull
+        public Rx2Dnssd build() {
+            Rx2DnssdCommon rxDnssd = embedded ? new Rx2DnssdEmbedded(context) : new Rx2DnssdBindable(context);
+            rxDnssd.getDNSSD().setTimeouts(resolveTimeout, addressQueryTimeout, txtQueryTimeout);
+            return rxDnssd;
+        }
+
+        private static int toMillis(long timeout, TimeUnit unit) {
+            long millis = unit.toMillis(timeout);
+            if (millis <= 0) {
+                throw new IllegalArgumentException("timeout must be positive");
+            }
+            return (int) Math.min(millis, Integer.MAX_VALUE);
+        }
+    }
 }
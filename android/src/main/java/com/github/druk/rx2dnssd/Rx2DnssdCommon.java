@@ -9,9 +9,17 @@ import com.github.druk.dnssd.TXTRecord;
 
 import androidx.annotation.NonNull;
 
+import java.io.ByteArrayOutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
 import io.reactivex.Flowable;
 import io.reactivex.FlowableEmitter;
 import io.reactivex.FlowableOnSubscribe;
@@ -20,6 +28,9 @@ import io.reactivex.functions.Action;
 
 abstract class Rx2DnssdCommon implements Rx2Dnssd {
 
+    // How long reconfirm() waits for the cached SRV record of a service
+    private static final long SRV_LOOKUP_TIMEOUT_MS = 1000;
+
     final private DNSSD mDNSSD;
 
     Rx2DnssdCommon(DNSSD dnssd) {
@@ -51,6 +62,28 @@ abstract class Rx2DnssdCommon implements Rx2Dnssd {
                         new Rx2BrowseListener(emitter)));
     }
 
+    @NonNull
+    @Override
+    public Flowable<BonjourService> browse(@NonNull final String regType, @NonNull final String domain, @NonNull final Action onStarted) {
+        return createFlowable(emitter ->
+                mDNSSD.browse(0, DNSSD.ALL_INTERFACES, regType, domain,
+                        new Rx2BrowseListener(emitter)), onStarted);
+    }
+
+    @NonNull
+    @Override
+    public Flowable<List<BonjourService>> browseBatched(@NonNull final String regType, @NonNull final String domain, @NonNull final Action onStarted) {
+        return createFlowable(emitter ->
+                mDNSSD.browse(0, DNSSD.ALL_INTERFACES, regType, domain,
+                        new Rx2BatchedBrowseListener(emitter)), onStarted);
+    }
+
+    @NonNull
+    @Override
+    public Flowable<BonjourDomain> enumerateDomains(int flags) {
+        return createFlowable(emitter -> mDNSSD.enumerateDomains(flags, 0, new Rx2DomainListener(emitter)));
+    }
+
     /**
      * Resolve a {@link Flowable} to a target host name, port number, and txt record.<P>
      * <p>
@@ -76,6 +109,25 @@ abstract class Rx2DnssdCommon implements Rx2Dnssd {
         });
     }
 
+    @NonNull
+    @Override
+    public FlowableTransformer<BonjourService, BonjourService> resolve(long deadline, @NonNull TimeUnit unit) {
+        return flowable -> flowable.flatMap(bs -> {
+            if ((bs.getFlags() & BonjourService.LOST) == BonjourService.LOST) {
+                return Flowable.just(bs);
+            }
+            // One resolve shared by the complete and the partial results
+            Flowable<BonjourService> resolved = Flowable.just(bs).compose(resolve()).cache();
+            AtomicBoolean complete = new AtomicBoolean();
+            Flowable<BonjourService> withAddresses = resolved.compose(queryIPRecords())
+                    .doOnNext(service -> complete.set(true));
+            Flowable<BonjourService> partial = Flowable.timer(deadline, unit)
+                    .flatMap(tick -> resolved.take(1))
+                    .filter(service -> !complete.get());
+            return withAddresses.publish(shared -> shared.mergeWith(partial.takeUntil(shared)));
+        });
+    }
+
     /**
      * Query ipv4 and ipv6 addresses
      *
@@ -222,6 +274,13 @@ abstract class Rx2DnssdCommon implements Rx2Dnssd {
                 new Rx2QueryListener(subscriber, new BonjourService.Builder(bs), false)));
     }
 
+    @NonNull
+    @Override
+    public Flowable<HostAddress> queryHostAddresses(@NonNull final String hostname, int rrtype, boolean autoStop) {
+        return createFlowable(emitter -> mDNSSD.queryRecord(0, 0, hostname, rrtype, NSClass.IN, autoStop,
+                new Rx2HostQueryListener(emitter, hostname, autoStop)));
+    }
+
     @NonNull
     @Override
     public Flowable<BonjourService> register(@NonNull final BonjourService bs) {
@@ -230,23 +289,113 @@ abstract class Rx2DnssdCommon implements Rx2Dnssd {
                         createTxtRecord(bs.getTxtRecords()), new Rx2RegisterListener(emitter)));
     }
 
+    @NonNull
+    @Override
+    public Completable reconfirm(@NonNull final BonjourService bs) {
+        final String fullName;
+        final String typeName;
+        try {
+            fullName = mDNSSD.constructFullName(bs.getServiceName(), bs.getRegType(), bs.getDomain());
+            typeName = mDNSSD.constructFullName(null, bs.getRegType(), bs.getDomain());
+        } catch (DNSSDException e) {
+            return Completable.error(e);
+        }
+
+        Completable records = Completable.fromAction(() -> {
+            int error = mDNSSD.reconfirmRecord(0, bs.getIfIndex(), typeName, NSType.PTR, NSClass.IN, encodeName(fullName));
+            if (bs.getHostname() != null) {
+                for (InetAddress address : bs.getInetAddresses()) {
+                    int rrtype = address instanceof Inet4Address ? NSType.A : NSType.AAAA;
+                    error = firstError(error, mDNSSD.reconfirmRecord(0, bs.getIfIndex(), bs.getHostname(), rrtype, NSClass.IN, address.getAddress()));
+                }
+            }
+            throwIfError(error);
+        });
+        if (bs.getHostname() == null) {
+            return records;
+        }
+
+        // The cached SRV record answers right away, its rdata holds the actual priority and weight
+        Flowable<byte[]> srv = createFlowable(emitter ->
+                mDNSSD.queryRecord(0, bs.getIfIndex(), fullName, NSType.SRV, NSClass.IN, true,
+                        new Rx2RecordListener(emitter, true)));
+        return records.andThen(srv
+                .take(SRV_LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .take(1)
+                .flatMapCompletable(rdata -> Completable.fromAction(() ->
+                        throwIfError(mDNSSD.reconfirmRecord(0, bs.getIfIndex(), fullName, NSType.SRV, NSClass.IN, rdata)))));
+    }
+
+    private static int firstError(int error, int next) {
+        return error != DNSSDException.NO_ERROR ? error : next;
+    }
+
+    private static void throwIfError(int error) throws DNSSDException {
+        if (error != DNSSDException.NO_ERROR) {
+            throw DNSSD.createException(error);
+        }
+    }
+
+    /**
+     * Encode an escaped domain name (as returned by the listeners) to DNS wire format.
+     */
+    private static byte[] encodeName(String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(name.length() + 2);
+        ByteArrayOutputStream label = new ByteArrayOutputStream(63);
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            byte b = bytes[i];
+            if (b == '\\' && i + 1 < bytes.length) {
+                if (i + 3 < bytes.length && Character.isDigit(bytes[i + 1]) && Character.isDigit(bytes[i + 2]) && Character.isDigit(bytes[i + 3])) {
+                    label.write((bytes[i + 1] - '0') * 100 + (bytes[i + 2] - '0') * 10 + (bytes[i + 3] - '0'));
+                    i += 3;
+                } else {
+                    label.write(bytes[++i]);
+                }
+            } else if (b == '.') {
+                writeLabel(out, label);
+            } else {
+                label.write(b);
+            }
+        }
+        writeLabel(out, label);
+        out.write(0);
+        return out.toByteArray();
+    }
+
+    private static void writeLabel(ByteArrayOutputStream out, ByteArrayOutputStream label) {
+        if (label.size() == 0) {
+            return;
+        }
+        out.write(label.size());
+        byte[] data = label.toByteArray();
+        out.write(data, 0, data.length);
+        label.reset();
+    }
+
     @SuppressWarnings("PMD.SignatureDeclareThrowsException")
     private static class DNSSDServiceAction<T> implements FlowableOnSubscribe<T>, Action {
 
         private final DNSSDServiceCreator<T> creator;
+        private final Action onStarted;
         private DNSSDService service;
 
-        DNSSDServiceAction(DNSSDServiceCreator<T> creator) {
+        DNSSDServiceAction(DNSSDServiceCreator<T> creator, Action onStarted) {
             this.creator = creator;
+            this.onStarted = onStarted;
         }
 
         @Override
-        public void subscribe(FlowableEmitter<T> emitter) {
+        public void subscribe(FlowableEmitter<T> emitter) throws Exception {
             if (!emitter.isCancelled() && creator != null) {
                 try {
                     service = creator.getService(emitter);
                 } catch (DNSSDException e) {
                     emitter.onError(e);
+                    return;
+                }
+                if (onStarted != null) {
+                    onStarted.run();
                 }
             }
         }
@@ -265,7 +414,11 @@ abstract class Rx2DnssdCommon implements Rx2Dnssd {
     }
 
     private <T> Flowable<T> createFlowable(DNSSDServiceCreator<T> creator) {
-        DNSSDServiceAction<T> action = new DNSSDServiceAction<>(creator);
+        return createFlowable(creator, null);
+    }
+
+    private <T> Flowable<T> createFlowable(DNSSDServiceCreator<T> creator, Action onStarted) {
+        DNSSDServiceAction<T> action = new DNSSDServiceAction<>(creator, onStarted);
         return Flowable.create(action, BackpressureStrategy.BUFFER)
                 .doFinally(action);
     }
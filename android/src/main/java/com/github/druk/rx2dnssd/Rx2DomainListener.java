@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 Andriy Druk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.druk.rx2dnssd;
+
+import com.github.druk.dnssd.DNSSD;
+import com.github.druk.dnssd.DNSSDService;
+import com.github.druk.dnssd.DomainListener;
+
+import io.reactivex.FlowableEmitter;
+
+class Rx2DomainListener implements DomainListener {
+    private final FlowableEmitter<? super BonjourDomain> emitter;
+
+    Rx2DomainListener(FlowableEmitter<? super BonjourDomain> emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void domainFound(DNSSDService domainEnum, int flags, int ifIndex, String domain) {
+        if (emitter.isCancelled()) {
+            return;
+        }
+        emitter.onNext(new BonjourDomain(flags, ifIndex, domain));
+    }
+
+    @Override
+    public void domainLost(DNSSDService domainEnum, int flags, int ifIndex, String domain) {
+        if (emitter.isCancelled()) {
+            return;
+        }
+        emitter.onNext(new BonjourDomain(flags | BonjourDomain.LOST, ifIndex, domain));
+    }
+
+    @Override
+    public void operationFailed(DNSSDService service, int errorCode) {
+        if (emitter.isCancelled()) {
+            return;
+        }
+        emitter.onError(DNSSD.createException(errorCode));
+    }
+}
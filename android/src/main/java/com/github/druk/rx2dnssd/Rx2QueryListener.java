@@ -65,6 +65,6 @@ class Rx2QueryListener implements QueryListener {
         if (emitter.isCancelled()) {
             return;
         }
-        emitter.onError(new RuntimeException("DNSSD queryRecord error: " + errorCode));
+        emitter.onError(DNSSD.createException(errorCode));
     }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Andriy Druk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.druk.rx2dnssd;
+
+import com.github.druk.dnssd.DNSSD;
+import com.github.druk.dnssd.DNSSDService;
+import com.github.druk.dnssd.QueryListener;
+
+import io.reactivex.FlowableEmitter;
+
+/**
+ * Emits the raw rdata of the records answered to a query.
+ */
+class Rx2RecordListener implements QueryListener {
+
+    // kDNSServiceFlagsAdd, cleared when the record is being removed
+    private static final int FLAG_ADD = 1 << 1;
+
+    private final FlowableEmitter<? super byte[]> emitter;
+    private final boolean completable;
+
+    Rx2RecordListener(FlowableEmitter<? super byte[]> emitter, boolean completable) {
+        this.emitter = emitter;
+        this.completable = completable;
+    }
+
+    @Override
+    public void queryAnswered(DNSSDService query, int flags, int ifIndex, String fullName, int rrtype, int rrclass, byte[] rdata, int ttl) {
+        if (emitter.isCancelled() || (flags & FLAG_ADD) == 0) {
+            return;
+        }
+        emitter.onNext(rdata);
+        if (completable) {
+            emitter.onComplete();
+        }
+    }
+
+    @Override
+    public void operationFailed(DNSSDService service, int errorCode) {
+        if (emitter.isCancelled()) {
+            return;
+        }
+        emitter.onError(DNSSD.createException(errorCode));
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.github.druk.rx2dnssd;
 
+import com.github.druk.dnssd.DNSSD;
 import com.github.druk.dnssd.DNSSDRegistration;
 import com.github.druk.dnssd.DNSSDService;
 import com.github.druk.dnssd.RegisterListener;
@@ -42,6 +43,6 @@ class Rx2RegisterListener implements RegisterListener {
         if (emitter.isCancelled()) {
             return;
         }
-        emitter.onError(new RuntimeException("DNSSD browse error: " + errorCode));
+        emitter.onError(DNSSD.createException(errorCode));
     }
 }
@@ -15,6 +15,7 @@
  */
 package com.github.druk.rx2dnssd;
 
+import com.github.druk.dnssd.DNSSD;
 import com.github.druk.dnssd.DNSSDService;
 import com.github.druk.dnssd.ResolveListener;
 
@@ -46,6 +47,6 @@ class Rx2ResolveListener implements ResolveListener {
         if (emitter.isCancelled()) {
             return;
         }
-        emitter.onError(new RuntimeException("DNSSD resolve error: " + errorCode));
+        emitter.onError(DNSSD.createException(errorCode));
     }
 }
@@ -102,6 +102,8 @@ struct	OpContext
 	jobject			ClientObj;
 	jmethodID		Callback;
 	jmethodID		Callback2;
+	jbyteArray		Scratch;		// Global ref reused by every reply of the operation, see GetScratch()
+	jsize			ScratchLen;
 };
 
 
@@ -221,12 +223,36 @@ static OpContext	*NewContext( JNIEnv *pEnv, jobject owner,
 								(*pEnv)->GetObjectClass( pEnv, pContext->ClientObj),
 								callbackName, callbackSig);
 		pContext->Callback2 = NULL;		// not always used
+		pContext->Scratch = NULL;
+		pContext->ScratchLen = 0;
 	}
 
 	return pContext;
 }
 
 
+static jbyteArray	GetScratch( JNIEnv *pEnv, OpContext *pContext, jsize needed)
+// Return the byte array the replies of this operation are copied into, growing it if needed.
+// The Java side decodes it before the upcall returns, so one array serves every reply instead
+// of a new one per name; it is freed by HaltOperation().
+{
+	if ( pContext->ScratchLen < needed)
+	{
+		jsize		len = needed < 1024 ? 1024 : needed;
+		jbyteArray	local = (*pEnv)->NewByteArray( pEnv, len);
+
+		if ( local == NULL)
+			return NULL;
+		if ( pContext->Scratch != NULL)
+			(*pEnv)->DeleteGlobalRef( pEnv, pContext->Scratch);
+		pContext->Scratch = (*pEnv)->NewGlobalRef( pEnv, local);
+		pContext->ScratchLen = pContext->Scratch != NULL ? len : 0;
+		(*pEnv)->DeleteLocalRef( pEnv, local);
+	}
+	return pContext->Scratch;
+}
+
+
 static void			ReportError( JNIEnv *pEnv, jobject target, jobject service, DNSServiceErrorType err)
 // Invoke operationFailed() method on target with err.
 {
@@ -255,17 +281,17 @@ JNIEXPORT void JNICALL Java_com_github_druk_dnssd_AppleService_HaltOperation( JN
 
 			(*pEnv)->DeleteWeakGlobalRef( pEnv, pContext->JavaObj);
 			(*pEnv)->DeleteWeakGlobalRef( pEnv, pContext->ClientObj);
+			if ( pContext->Scratch != NULL)
+				(*pEnv)->DeleteGlobalRef( pEnv, pContext->Scratch);
 			free( pContext);
 		}
 	}
 }
 
 
-JNIEXPORT jint JNICALL Java_com_github_druk_dnssd_AppleService_BlockForData( JNIEnv *pEnv, jobject pThis)
-/* Block until data arrives, or one second passes. Returns 1 if data present, 0 otherwise. */
+JNIEXPORT jint JNICALL Java_com_github_druk_dnssd_AppleService_SocketFD( JNIEnv *pEnv, jobject pThis)
+/* Return the socket of the operation, or -1 if it has none. Called before the service thread starts. */
 {
-// BlockForData() not supported with AUTO_CALLBACKS 
-#if !AUTO_CALLBACKS
 	jclass			cls = (*pEnv)->GetObjectClass( pEnv, pThis);
 	jfieldID		contextField = (*pEnv)->GetFieldID( pEnv, cls, "fNativeContext", "J");
 
@@ -273,38 +299,43 @@ JNIEXPORT jint JNICALL Java_com_github_druk_dnssd_AppleService_BlockForData( JNI
 	{
 		OpContext	*pContext = (OpContext*) (long) (*pEnv)->GetLongField(pEnv, pThis, contextField);
 		if ( pContext != NULL)
-		{
-			fd_set			readFDs;
-			int				sd = DNSServiceRefSockFD( pContext->ServiceRef);
-			struct timeval	timeout = { 1, 0 };
-			FD_ZERO( &readFDs);
-			FD_SET( sd, &readFDs);
+			return DNSServiceRefSockFD( pContext->ServiceRef);
+	}
+	return -1;
+}
 
-			// Q: Why do we poll here?
-			// A: Because there's no other thread-safe way to do it.
-			// Mac OS X terminates a select() call if you close one of the sockets it's listening on, but Linux does not,
-			// and arguably Linux is correct (See <http://www.ussg.iu.edu/hypermail/linux/kernel/0405.1/0418.html>)
-			// The problem is that the Mac OS X behaviour assumes that it's okay for one thread to close a socket while
-			// some other thread is monitoring that socket in select(), but the difficulty is that there's no general way
-			// to make that thread-safe, because there's no atomic way to enter select() and release a lock simultaneously.
-			// If we try to do this without holding any lock, then right as we jump to the select() routine,
-			// some other thread could stop our operation (thereby closing the socket),
-			// and then that thread (or even some third, unrelated thread)
-			// could do some other DNS-SD operation (or some other operation that opens a new file descriptor)
-			// and then we'd blindly resume our fall into the select() call, now blocking on a file descriptor
-			// that may coincidentally have the same numerical value, but is semantically unrelated
-			// to the true file descriptor we thought we were blocking on.
-			// We can't stop this race condition from happening, but at least if we wake up once a second we can detect
-			// when fNativeContext has gone to zero, and thereby discover that we were blocking on the wrong fd.
-
-			if (select( sd + 1, &readFDs, (fd_set*) NULL, (fd_set*) NULL, &timeout) == 1) return(1);
-		}
+
+JNIEXPORT jint JNICALL Java_com_github_druk_dnssd_AppleService_BlockForData( JNIEnv *pEnv _UNUSED, jobject pThis _UNUSED, jint sd)
+/* Block until data arrives on sd, or one second passes. Returns 1 if data present, 0 otherwise. */
+{
+// BlockForData() not supported with AUTO_CALLBACKS 
+#if !AUTO_CALLBACKS
+	if ( sd >= 0)
+	{
+		fd_set			readFDs;
+		struct timeval	timeout = { 1, 0 };
+		FD_ZERO( &readFDs);
+		FD_SET( sd, &readFDs);
+
+		// Q: Why do we poll here?
+		// A: Because there's no other thread-safe way to do it.
+		// Mac OS X terminates a select() call if you close one of the sockets it's listening on, but Linux does not,
+		// and arguably Linux is correct (See <http://www.ussg.iu.edu/hypermail/linux/kernel/0405.1/0418.html>)
+		// Some other thread may stop our operation while we block, closing the socket, and some DNS-SD operation
+		// may then get a new socket with the same numerical value. Waking up once a second lets AppleService.run()
+		// notice that the operation was stopped; it then leaves without reading anything from that socket.
+		// The socket is passed in rather than read from the OpContext, which the stopping thread frees.
+
+		if (select( sd + 1, &readFDs, (fd_set*) NULL, (fd_set*) NULL, &timeout) == 1) return(1);
 	}
 #endif // !AUTO_CALLBACKS
 	return(0);
 }
 
 
+// Replies drained by one ProcessResults() call, so a long burst doesn't keep a stop waiting too long.
+#define kMaxRepliesPerWakeup 64
+
 JNIEXPORT jint JNICALL Java_com_github_druk_dnssd_AppleService_ProcessResults( JNIEnv *pEnv, jobject pThis)
 /* Call through to DNSServiceProcessResult() while data remains on socket. */
 {
@@ -327,17 +358,22 @@ JNIEXPORT jint JNICALL Java_com_github_druk_dnssd_AppleService_ProcessResults( J
 		FD_SET( sd, &readFDs);
 
 		err = kDNSServiceErr_NoError;
-		if (0 < select(sd + 1, &readFDs, (fd_set*) NULL, (fd_set*) NULL, &zeroTimeout))
+		for ( int i = 0; i < kMaxRepliesPerWakeup &&
+						0 < select(sd + 1, &readFDs, (fd_set*) NULL, (fd_set*) NULL, &zeroTimeout); i++)
 		{
 			err = DNSServiceProcessResult(pContext->ServiceRef);
 			// Use caution here!
-			// We cannot touch any data structures associated with this operation!
 			// The DNSServiceProcessResult() routine should have invoked our callback,
 			// and our callback could have terminated the operation with op.stop();
 			// and that means HaltOperation() will have been called, which frees pContext.
-			// Basically, from here we just have to get out without touching any stale
-			// data structures that could blow up on us! Particularly, any attempt
-			// to loop here reading more results from the file descriptor is unsafe.
+			// So before draining the next reply of the burst we read fNativeContext again,
+			// only comparing it with the old pointer, and get out as soon as it changed,
+			// without touching any stale data structures that could blow up on us!
+			if ( err != kDNSServiceErr_NoError ||
+				 (OpContext*) (long) (*pEnv)->GetLongField(pEnv, pThis, contextField) != pContext)
+				break;
+			FD_ZERO( &readFDs);
+			FD_SET( sd, &readFDs);
 		}
 	}
 	return err;
@@ -361,18 +397,22 @@ static void DNSSD_API	ServiceBrowseReply( DNSServiceRef sdRef _UNUSED, DNSServic
 	{
 		if ( errorCode == kDNSServiceErr_NoError)
 		{
-			jbyteArray jServiceName = (*pContext->Env)->NewByteArray(pContext->Env, (jsize)strlen(serviceName));
-			(*pContext->Env)->SetByteArrayRegion (pContext->Env, jServiceName, 0, (jsize)strlen(serviceName), (const jbyte *) serviceName);
-			jbyteArray jRegType = (*pContext->Env)->NewByteArray(pContext->Env, (jsize)strlen(regtype));
-			(*pContext->Env)->SetByteArrayRegion (pContext->Env, jRegType, 0, (jsize)strlen(regtype), (const jbyte *) regtype);
-			jbyteArray jReplyDomain = (*pContext->Env)->NewByteArray(pContext->Env, (jsize)strlen(replyDomain));
-			(*pContext->Env)->SetByteArrayRegion (pContext->Env, jReplyDomain, 0, (jsize)strlen(replyDomain), (const jbyte *) replyDomain);
-			(*pContext->Env)->CallVoidMethod( pContext->Env, clientObj,
-								( flags & kDNSServiceFlagsAdd) != 0 ? pContext->Callback : pContext->Callback2,
-								pContext->JavaObj, flags, interfaceIndex, jServiceName, jRegType, jReplyDomain);
-			(*pContext->Env)->DeleteLocalRef( pContext->Env, jServiceName);
-			(*pContext->Env)->DeleteLocalRef( pContext->Env, jRegType);
-			(*pContext->Env)->DeleteLocalRef( pContext->Env, jReplyDomain);
+			jsize		nameLen = (jsize)strlen(serviceName);
+			jsize		typeLen = (jsize)strlen(regtype);
+			jsize		domainLen = (jsize)strlen(replyDomain);
+			jbyteArray	jBuffer = GetScratch( pContext->Env, pContext, nameLen + typeLen + domainLen);
+
+			if ( jBuffer != NULL)
+			{
+				(*pContext->Env)->SetByteArrayRegion (pContext->Env, jBuffer, 0, nameLen, (const jbyte *) serviceName);
+				(*pContext->Env)->SetByteArrayRegion (pContext->Env, jBuffer, nameLen, typeLen, (const jbyte *) regtype);
+				(*pContext->Env)->SetByteArrayRegion (pContext->Env, jBuffer, nameLen + typeLen, domainLen, (const jbyte *) replyDomain);
+				(*pContext->Env)->CallVoidMethod( pContext->Env, clientObj,
+									( flags & kDNSServiceFlagsAdd) != 0 ? pContext->Callback : pContext->Callback2,
+									pContext->JavaObj, flags, interfaceIndex, jBuffer, nameLen, typeLen, domainLen);
+			}
+			else
+				ReportError( pContext->Env, clientObj, pContext->JavaObj, kDNSServiceErr_NoMemory);
 		}
 		else
 			ReportError( pContext->Env, clientObj, pContext->JavaObj, errorCode);
@@ -393,7 +433,7 @@ JNIEXPORT jint JNICALL Java_com_github_druk_dnssd_AppleBrowser_CreateBrowser( JN
 
 	if ( contextField != 0)
 		pContext = NewContext( pEnv, pThis, "serviceFound",
-								"(Lcom/github/druk/dnssd/DNSSDService;II[B[B[B)V");
+								"(Lcom/github/druk/dnssd/DNSSDService;II[BIII)V");
 	else
 		err = kDNSServiceErr_BadParam;
 
@@ -404,7 +444,7 @@ JNIEXPORT jint JNICALL Java_com_github_druk_dnssd_AppleBrowser_CreateBrowser( JN
 
 		pContext->Callback2 = (*pEnv)->GetMethodID( pEnv,
 								(*pEnv)->GetObjectClass( pEnv, pContext->ClientObj),
-								"serviceLost", "(Lcom/github/druk/dnssd/DNSSDService;II[B[B[B)V");
+								"serviceLost", "(Lcom/github/druk/dnssd/DNSSDService;II[BIII)V");
 
 		err = DNSServiceBrowse( &pContext->ServiceRef, flags, ifIndex, regStr, domainStr, ServiceBrowseReply, pContext);
 		if ( err == kDNSServiceErr_NoError)
@@ -427,44 +467,31 @@ static void DNSSD_API	ServiceResolveReply( DNSServiceRef sdRef _UNUSED, DNSServi
 								uint16_t port, uint16_t txtLen, const unsigned char *txtRecord, void *context)
 {
 	OpContext		*pContext = (OpContext*) context;
-	jclass			txtCls;
-	jmethodID		txtCtor;
-	jbyteArray		txtBytes;
-	jobject			txtObj;
-	jbyte			*pBytes;
 
 	SetupCallbackState( &pContext->Env);
 
-	txtCls = (*pContext->Env)->FindClass( pContext->Env, "com/github/druk/dnssd/TXTRecord");
-	txtCtor = (*pContext->Env)->GetMethodID( pContext->Env, txtCls, "<init>", "([B)V");
-
-	if ( pContext->ClientObj != NULL && pContext->Callback != NULL && txtCtor != NULL &&
-		 NULL != ( txtBytes = (*pContext->Env)->NewByteArray( pContext->Env, txtLen)))
+	if ( pContext->ClientObj != NULL && pContext->Callback != NULL)
 	{
 		if ( errorCode == kDNSServiceErr_NoError)
 		{
+			jsize		fullLen = (jsize)strlen(fullname);
+			jsize		hostLen = (jsize)strlen(hosttarget);
+			jbyteArray	jBuffer = GetScratch( pContext->Env, pContext, fullLen + hostLen + txtLen);
+
 			// Since Java ints are defined to be big-endian, we canonicalize 'port' from a 16-bit
 			// pattern into a number here.
 			port = ( ((unsigned char*) &port)[0] << 8) | ((unsigned char*) &port)[1];
-	
-			// Initialize txtBytes with contents of txtRecord
-			pBytes = (*pContext->Env)->GetByteArrayElements( pContext->Env, txtBytes, NULL);
-			memcpy( pBytes, txtRecord, txtLen);
-			(*pContext->Env)->ReleaseByteArrayElements( pContext->Env, txtBytes, pBytes, JNI_COMMIT);
-	
-			// Construct txtObj with txtBytes
-			txtObj = (*pContext->Env)->NewObject( pContext->Env, txtCls, txtCtor, txtBytes);
-			(*pContext->Env)->DeleteLocalRef( pContext->Env, txtBytes);
-
-			jbyteArray jFullName = (*pContext->Env)->NewByteArray(pContext->Env, (jsize)strlen(fullname));
-			(*pContext->Env)->SetByteArrayRegion (pContext->Env, jFullName, 0, (jsize)strlen(fullname), (const jbyte *) fullname);
-			jbyteArray jHostTarget = (*pContext->Env)->NewByteArray(pContext->Env, (jsize)strlen(hosttarget));
-			(*pContext->Env)->SetByteArrayRegion (pContext->Env, jHostTarget, 0, (jsize)strlen(hosttarget), (const jbyte *) hosttarget);
-			(*pContext->Env)->CallVoidMethod( pContext->Env, pContext->ClientObj, pContext->Callback,
-								pContext->JavaObj, flags, interfaceIndex, jFullName, jHostTarget, port, txtObj);
-			(*pContext->Env)->DeleteLocalRef( pContext->Env, jFullName);
-			(*pContext->Env)->DeleteLocalRef( pContext->Env, jHostTarget);
-			(*pContext->Env)->DeleteLocalRef( pContext->Env, txtObj);
+
+			if ( jBuffer != NULL)
+			{
+				(*pContext->Env)->SetByteArrayRegion (pContext->Env, jBuffer, 0, fullLen, (const jbyte *) fullname);
+				(*pContext->Env)->SetByteArrayRegion (pContext->Env, jBuffer, fullLen, hostLen, (const jbyte *) hosttarget);
+				(*pContext->Env)->SetByteArrayRegion (pContext->Env, jBuffer, fullLen + hostLen, txtLen, (const jbyte *) txtRecord);
+				(*pContext->Env)->CallVoidMethod( pContext->Env, pContext->ClientObj, pContext->Callback,
+									pContext->JavaObj, flags, interfaceIndex, jBuffer, fullLen, hostLen, port, (jint) txtLen);
+			}
+			else
+				ReportError( pContext->Env, pContext->ClientObj, pContext->JavaObj, kDNSServiceErr_NoMemory);
 		}
 		else
 			ReportError( pContext->Env, pContext->ClientObj, pContext->JavaObj, errorCode);
@@ -483,7 +510,7 @@ JNIEXPORT jint JNICALL Java_com_github_druk_dnssd_AppleResolver_CreateResolver(
 
 	if ( contextField != 0)
 		pContext = NewContext( pEnv, pThis, "serviceResolved",
-								"(Lcom/github/druk/dnssd/DNSSDService;II[B[BILcom/github/druk/dnssd/TXTRecord;)V");
+								"(Lcom/github/druk/dnssd/DNSSDService;II[BIIII)V");
 	else
 		err = kDNSServiceErr_BadParam;
 
@@ -817,27 +844,25 @@ static void DNSSD_API	ServiceQueryReply( DNSServiceRef sdRef _UNUSED, DNSService
 								const void *rdata, uint32_t ttl, void *context)
 {
 	OpContext		*pContext = (OpContext*) context;
-	jbyteArray		rDataObj;
-	jbyte			*pBytes;
 
 	SetupCallbackState( &pContext->Env);
 
-	if ( pContext->ClientObj != NULL && pContext->Callback != NULL && 
-		 NULL != ( rDataObj = (*pContext->Env)->NewByteArray( pContext->Env, rdlen)))
-	{	
+	if ( pContext->ClientObj != NULL && pContext->Callback != NULL)
+	{
 		if ( errorCode == kDNSServiceErr_NoError)
 		{
-			// Initialize rDataObj with contents of rdata
-			pBytes = (*pContext->Env)->GetByteArrayElements( pContext->Env, rDataObj, NULL);
-			memcpy( pBytes, rdata, rdlen);
-			(*pContext->Env)->ReleaseByteArrayElements( pContext->Env, rDataObj, pBytes, JNI_COMMIT);
-
-			jbyteArray jServiceName = (*pContext->Env)->NewByteArray(pContext->Env, (jsize)strlen(serviceName));
-			(*pContext->Env)->SetByteArrayRegion (pContext->Env, jServiceName, 0, (jsize)strlen(serviceName), (const jbyte *) serviceName);
-			(*pContext->Env)->CallVoidMethod( pContext->Env, pContext->ClientObj, pContext->Callback,
-								pContext->JavaObj, flags, interfaceIndex, jServiceName, rrtype, rrclass, rDataObj, ttl);
-			(*pContext->Env)->DeleteLocalRef( pContext->Env, jServiceName);
-			(*pContext->Env)->DeleteLocalRef( pContext->Env, rDataObj);
+			jsize		nameLen = (jsize)strlen(serviceName);
+			jbyteArray	jBuffer = GetScratch( pContext->Env, pContext, nameLen + rdlen);
+
+			if ( jBuffer != NULL)
+			{
+				(*pContext->Env)->SetByteArrayRegion (pContext->Env, jBuffer, 0, nameLen, (const jbyte *) serviceName);
+				(*pContext->Env)->SetByteArrayRegion (pContext->Env, jBuffer, nameLen, rdlen, (const jbyte *) rdata);
+				(*pContext->Env)->CallVoidMethod( pContext->Env, pContext->ClientObj, pContext->Callback,
+									pContext->JavaObj, flags, interfaceIndex, jBuffer, nameLen, rrtype, rrclass, (jint) rdlen, ttl);
+			}
+			else
+				ReportError( pContext->Env, pContext->ClientObj, pContext->JavaObj, kDNSServiceErr_NoMemory);
 		}
 		else
 			ReportError( pContext->Env, pContext->ClientObj, pContext->JavaObj, errorCode);
@@ -855,7 +880,7 @@ JNIEXPORT jint JNICALL Java_com_github_druk_dnssd_AppleQuery_CreateQuery( JNIEnv
 
 	if ( contextField != 0)
 		pContext = NewContext( pEnv, pThis, "queryAnswered",
-								"(Lcom/github/druk/dnssd/DNSSDService;II[BII[BI)V");
+								"(Lcom/github/druk/dnssd/DNSSDService;II[BIIIII)V");
 	else
 		err = kDNSServiceErr_BadParam;
 
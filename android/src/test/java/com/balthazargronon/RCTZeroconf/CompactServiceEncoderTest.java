@@ -0,0 +1,132 @@
+package com.balthazargronon.RCTZeroconf;
+
+import android.util.Base64;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompactServiceEncoderTest {
+
+    /** Reads the format back the way decodeServices() in src/index.js does. */
+    private static final class Decoder {
+        private final byte[] bytes;
+        private int position;
+        final List<String> strings = new ArrayList<>();
+
+        Decoder(String encoded) {
+            bytes = Base64.decode(encoded, Base64.NO_WRAP);
+            assertEquals(CompactServiceEncoder.VERSION, varint());
+            int count = varint();
+            for (int i = 0; i < count; i++) {
+                int length = varint();
+                strings.add(new String(bytes, position, length, StandardCharsets.UTF_8));
+                position += length;
+            }
+        }
+
+        int varint() {
+            int value = 0;
+            int shift = 0;
+            while (true) {
+                int b = bytes[position++] & 0xff;
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+
+        String nullable() {
+            int index = varint();
+            return index == 0 ? null : strings.get(index - 1);
+        }
+
+        DiscoveredService service() {
+            String name = strings.get(varint());
+            String fullName = nullable();
+            String host = nullable();
+            int port = varint();
+            List<String> addresses = new ArrayList<>();
+            for (int i = varint(); i > 0; i--) {
+                addresses.add(strings.get(varint()));
+            }
+            Map<String, String> txt = new LinkedHashMap<>();
+            for (int i = varint(); i > 0; i--) {
+                txt.put(strings.get(varint()), strings.get(varint()));
+            }
+            DiscoveredService service = new DiscoveredService(name, fullName, host, port, addresses, txt);
+            return (varint() & 1) != 0 ? service.asCached() : service;
+        }
+    }
+
+    private static Map<String, String> txt(String... keysAndValues) {
+        Map<String, String> txt = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            txt.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return txt;
+    }
+
+    private static void assertSameService(DiscoveredService expected, DiscoveredService actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getFullName(), actual.getFullName());
+        assertEquals(expected.getHost(), actual.getHost());
+        assertEquals(expected.getPort(), actual.getPort());
+        assertEquals(expected.getAddresses(), actual.getAddresses());
+        assertEquals(expected.getTxt(), actual.getTxt());
+        assertEquals(expected.isCached(), actual.isCached());
+    }
+
+    @Test
+    public void servicesRoundTrip() {
+        DiscoveredService printer = new DiscoveredService("Printer", "Printer._ipp._tcp.local.", "printer.local.", 631,
+                Arrays.asList("192.168.1.20", "fe80::1"), txt("rp", "ipp/print", "ty", "Imprimante été"));
+        DiscoveredService cached = new DiscoveredService("Scanner", null, null, 0,
+                Collections.<String>emptyList(), txt()).asCached();
+
+        Decoder decoder = new Decoder(CompactServiceEncoder.encode(Arrays.asList(printer, cached)));
+        assertEquals(2, decoder.varint());
+        assertSameService(printer, decoder.service());
+        DiscoveredService decoded = decoder.service();
+        assertSameService(cached, decoded);
+        assertNull(decoded.getHost());
+    }
+
+    @Test
+    public void repeatedStringsAreWrittenOnce() {
+        List<DiscoveredService> services = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            services.add(new DiscoveredService("TV " + i, "TV " + i + "._airplay._tcp.local.", "tv" + i + ".local.", 7000,
+                    Collections.singletonList("10.0.0." + i), txt("model", "AppleTV", "features", "0x5A7FFFF7")));
+        }
+
+        Decoder decoder = new Decoder(CompactServiceEncoder.encode(services));
+        // Name, full name, host and address of each service, plus the 4 shared TXT strings
+        assertEquals(200 * 4 + 4, decoder.strings.size());
+        assertEquals(200, decoder.varint());
+        for (DiscoveredService service : services) {
+            assertSameService(service, decoder.service());
+        }
+    }
+
+    @Test
+    public void emptyBatch() {
+        Decoder decoder = new Decoder(CompactServiceEncoder.encode(Collections.<DiscoveredService>emptyList()));
+        assertEquals(0, decoder.strings.size());
+        assertEquals(0, decoder.varint());
+    }
+}
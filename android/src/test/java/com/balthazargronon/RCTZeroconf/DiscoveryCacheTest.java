@@ -0,0 +1,151 @@
+package com.balthazargronon.RCTZeroconf;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoveryCacheTest {
+
+    private static final String TYPE = "_http._tcp";
+    // Writes are delayed by 2 s, give them time to land
+    private static final long WAIT_MS = 10 * 1000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static DiscoveredService service(String name) {
+        return new DiscoveredService(name, name + "." + TYPE + ".local.", name + ".local.", 80,
+                Collections.singletonList("10.0.0.1"), Collections.singletonMap("path", "/"));
+    }
+
+    private static List<String> names(List<DiscoveredService> services) {
+        List<String> names = new ArrayList<>();
+        for (DiscoveredService service : services) {
+            names.add(service.getName());
+        }
+        return names;
+    }
+
+    private static void await(String what, Check check) throws Exception {
+        await(what, check, WAIT_MS);
+    }
+
+    private static void await(String what, Check check, long waitMs) throws Exception {
+        long deadline = System.currentTimeMillis() + waitMs;
+        while (!check.done()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out waiting for " + what);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private interface Check {
+        boolean done();
+    }
+
+    @Test
+    public void servicesArePartitionedByNetwork() {
+        DiscoveryCache cache = new DiscoveryCache(new File(folder.getRoot(), "cache"));
+        cache.setNetwork("home");
+        cache.put(TYPE, service("A"));
+        cache.setNetwork("office");
+        cache.put(TYPE, service("B"));
+
+        assertEquals(Collections.singletonList("B"), names(cache.get(TYPE)));
+        cache.setNetwork("home");
+        assertEquals(Collections.singletonList("A"), names(cache.get(TYPE)));
+        assertTrue(cache.get("_ipp._tcp").isEmpty());
+    }
+
+    @Test
+    public void leastRecentlyUsedServicesAreEvicted() {
+        DiscoveryCache cache = new DiscoveryCache(new File(folder.getRoot(), "cache"));
+        cache.setEnabled(true, 2);
+        cache.put(TYPE, service("A"));
+        cache.put(TYPE, service("B"));
+        cache.put(TYPE, service("A"));
+        cache.put(TYPE, service("C"));
+
+        assertEquals(Arrays.asList("A", "C"), names(cache.get(TYPE)));
+    }
+
+    @Test
+    public void removedServicesAreForgotten() {
+        DiscoveryCache cache = new DiscoveryCache(new File(folder.getRoot(), "cache"));
+        cache.put(TYPE, service("A"));
+        cache.remove(TYPE, "A");
+        assertTrue(cache.get(TYPE).isEmpty());
+    }
+
+    @Test
+    public void enabledCacheIsWrittenAndLoadedBack() throws Exception {
+        File file = new File(folder.getRoot(), "cache");
+        DiscoveryCache cache = new DiscoveryCache(file);
+        cache.setEnabled(true, DiscoveryCache.DEFAULT_MAX_ENTRIES);
+        cache.setNetwork("home");
+        cache.put(TYPE, service("A"));
+        await("the cache file", file::exists);
+
+        DiscoveryCache loaded = new DiscoveryCache(file);
+        loaded.setNetwork("home");
+        loaded.load();
+        await("the cache to load", () -> !loaded.get(TYPE).isEmpty());
+
+        DiscoveredService service = loaded.get(TYPE).get(0);
+        assertEquals("A", service.getName());
+        assertEquals("A.local.", service.getHost());
+        assertEquals(80, service.getPort());
+        assertEquals(Collections.singletonList("10.0.0.1"), service.getAddresses());
+        assertEquals(Collections.singletonMap("path", "/"), service.getTxt());
+    }
+
+    @Test
+    public void closeWritesPendingChangesRightAway() throws Exception {
+        File file = new File(folder.getRoot(), "cache");
+        DiscoveryCache cache = new DiscoveryCache(file);
+        cache.setEnabled(true, DiscoveryCache.DEFAULT_MAX_ENTRIES);
+        cache.put(TYPE, service("A"));
+        cache.close();
+
+        // Well before the delayed write would have run
+        await("the cache file", file::exists, 1000);
+        cache.put(TYPE, service("B"));
+        assertEquals(Arrays.asList("A", "B"), names(cache.get(TYPE)));
+    }
+
+    @Test
+    public void unreadableFileIsDiscarded() throws Exception {
+        File file = new File(folder.getRoot(), "cache");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        }
+
+        DiscoveryCache cache = new DiscoveryCache(file);
+        cache.load();
+        await("the file to be deleted", () -> !file.exists());
+        assertTrue(cache.get(TYPE).isEmpty());
+    }
+
+    @Test
+    public void disablingDeletesTheFile() throws Exception {
+        File file = new File(folder.getRoot(), "cache");
+        assertTrue(file.createNewFile() || file.exists());
+
+        DiscoveryCache cache = new DiscoveryCache(file);
+        cache.setEnabled(false, 0);
+        await("the file to be deleted", () -> !file.exists());
+        assertFalse(cache.isEnabled());
+    }
+}
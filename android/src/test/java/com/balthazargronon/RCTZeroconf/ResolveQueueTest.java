@@ -0,0 +1,123 @@
+package com.balthazargronon.RCTZeroconf;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResolveQueueTest {
+
+    private final List<String> started = new ArrayList<>();
+    private final Map<String, Runnable> running = new HashMap<>();
+
+    private ResolveQueue<String> newQueue(int maxInFlight) {
+        return new ResolveQueue<>(maxInFlight, (service, done) -> {
+            started.add(service);
+            running.put(service, done);
+        });
+    }
+
+    @Test
+    public void runsAtMostMaxInFlightResolves() {
+        ResolveQueue<String> queue = newQueue(2);
+        queue.add("a", "a");
+        queue.add("b", "b");
+        queue.add("c", "c");
+        assertEquals(Arrays.asList("a", "b"), started);
+
+        running.get("a").run();
+        assertEquals(Arrays.asList("a", "b", "c"), started);
+    }
+
+    @Test
+    public void releasingASlotTwiceFreesItOnce() {
+        ResolveQueue<String> queue = newQueue(1);
+        queue.add("a", "a");
+        queue.add("b", "b");
+        queue.add("c", "c");
+
+        running.get("a").run();
+        running.get("a").run();
+        assertEquals(Arrays.asList("a", "b"), started);
+    }
+
+    @Test
+    public void startsPreferredServicesFirstThenInFoundOrder() {
+        ResolveQueue<String> queue = newQueue(1);
+        queue.setPriority(Arrays.asList("Printer", "Scanner"));
+        queue.add("busy", "busy");
+        queue.add("TV", "TV");
+        queue.add("Scanner 1", "Scanner 1");
+        queue.add("Printer 1", "Printer 1");
+        queue.add("Speaker", "Speaker");
+        queue.add("Printer 2", "Printer 2");
+
+        for (String name : Arrays.asList("busy", "Printer 1", "Printer 2", "Scanner 1", "TV")) {
+            running.get(name).run();
+        }
+        assertEquals(Arrays.asList("busy", "Printer 1", "Printer 2", "Scanner 1", "TV", "Speaker"), started);
+    }
+
+    @Test
+    public void backgroundWorkGoesAfterEveryService() {
+        ResolveQueue<String> queue = newQueue(1);
+        queue.setPriority(Arrays.asList("Printer"));
+        queue.add("busy", "busy");
+        queue.addLast("check", "check");
+        queue.add("TV", "TV");
+        queue.add("Printer 1", "Printer 1");
+
+        for (String name : Arrays.asList("busy", "Printer 1", "TV")) {
+            running.get(name).run();
+        }
+        assertEquals(Arrays.asList("busy", "Printer 1", "TV", "check"), started);
+    }
+
+    @Test
+    public void removedServicesAreNotResolved() {
+        ResolveQueue<String> queue = newQueue(1);
+        queue.add("a", "a");
+        queue.add("b", "b");
+        queue.add("c", "c");
+        queue.remove("b");
+
+        running.get("a").run();
+        assertEquals(Arrays.asList("a", "c"), started);
+    }
+
+    @Test
+    public void clearDropsPendingServicesAndIgnoresAbandonedSlots() {
+        ResolveQueue<String> queue = newQueue(1);
+        queue.add("a", "a");
+        queue.add("b", "b");
+        queue.clear();
+
+        queue.add("c", "c");
+        assertEquals(Arrays.asList("a", "c"), started);
+
+        // The resolve abandoned by clear() must not free the slot of c
+        queue.add("d", "d");
+        running.get("a").run();
+        assertEquals(Arrays.asList("a", "c"), started);
+
+        running.get("c").run();
+        assertEquals(Arrays.asList("a", "c", "d"), started);
+    }
+
+    @Test
+    public void emptyPriorityKeepsFoundOrder() {
+        ResolveQueue<String> queue = newQueue(1);
+        queue.setPriority(Collections.<String>emptyList());
+        queue.add("b", "b");
+        queue.add("a", "a");
+
+        running.get("b").run();
+        assertEquals(Arrays.asList("b", "a"), started);
+    }
+}
@@ -0,0 +1,68 @@
+package com.balthazargronon.RCTZeroconf;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceFilterTest {
+
+    private static Map<String, String> txt(String... keysAndValues) {
+        Map<String, String> txt = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            txt.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return txt;
+    }
+
+    @Test
+    public void noFilterMatchesEverything() {
+        ServiceFilter filter = ServiceFilter.from(null);
+        assertTrue(filter.matchesName("Living Room TV"));
+        assertTrue(filter.matchesTxt(txt()));
+    }
+
+    @Test
+    public void nameIsARegularExpressionFoundAnywhereInTheName() {
+        ServiceFilter filter = ServiceFilter.from(JavaOnlyMap.of(ServiceFilter.KEY_NAME, "^Living"));
+        assertTrue(filter.matchesName("Living Room TV"));
+        assertFalse(filter.matchesName("Kitchen Living"));
+
+        filter = ServiceFilter.from(JavaOnlyMap.of(ServiceFilter.KEY_NAME, "TV"));
+        assertTrue(filter.matchesName("Living Room TV"));
+    }
+
+    @Test
+    public void txtKeysMustAllBePresent() {
+        ServiceFilter filter = ServiceFilter.from(JavaOnlyMap.of(
+                ServiceFilter.KEY_TXT_KEYS, JavaOnlyArray.of("id", "md")));
+        assertTrue(filter.matchesTxt(txt("id", "1", "md", "")));
+        assertFalse(filter.matchesTxt(txt("id", "1")));
+    }
+
+    @Test
+    public void txtEqualsAndPrefixCompareTheValues() {
+        ServiceFilter filter = ServiceFilter.from(JavaOnlyMap.of(
+                ServiceFilter.KEY_TXT_EQUALS, JavaOnlyMap.of("model", "X1"),
+                ServiceFilter.KEY_TXT_PREFIX, JavaOnlyMap.of("fw", "2.")));
+        assertTrue(filter.matchesTxt(txt("model", "X1", "fw", "2.4")));
+        assertFalse(filter.matchesTxt(txt("model", "X10", "fw", "2.4")));
+        assertFalse(filter.matchesTxt(txt("model", "X1", "fw", "1.9")));
+        assertFalse(filter.matchesTxt(txt("model", "X1")));
+    }
+
+    @Test
+    public void nullEntriesAreIgnored() {
+        ServiceFilter filter = ServiceFilter.from(JavaOnlyMap.of(
+                ServiceFilter.KEY_NAME, null,
+                ServiceFilter.KEY_TXT_KEYS, null));
+        assertTrue(filter.matchesName("anything"));
+        assertTrue(filter.matchesTxt(txt()));
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.druk.dnssd;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ByteStringInternerTest {
+
+    private static byte[] utf8(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void sameBytesGiveTheSameString() {
+        ByteStringInterner interner = new ByteStringInterner(16, 64);
+        String first = interner.intern(utf8("_http._tcp."));
+        assertEquals("_http._tcp.", first);
+        assertSame(first, interner.intern(utf8("_http._tcp.")));
+    }
+
+    @Test
+    public void internsASliceOfTheBuffer() {
+        ByteStringInterner interner = new ByteStringInterner(16, 64);
+        byte[] buffer = utf8("My Printer_ipp._tcp.local.");
+        assertEquals("My Printer", interner.intern(buffer, 0, 10));
+        assertEquals("_ipp._tcp.", interner.intern(buffer, 10, 10));
+        assertEquals("local.", interner.intern(buffer, 20, 6));
+        assertSame(interner.intern(utf8("local.")), interner.intern(buffer, 20, 6));
+    }
+
+    @Test
+    public void decodesUtf8() {
+        ByteStringInterner interner = new ByteStringInterner(16, 64);
+        assertEquals("Salle de séjour ☕", interner.intern(utf8("Salle de séjour ☕")));
+    }
+
+    @Test
+    public void longStringsAreNotCached() {
+        ByteStringInterner interner = new ByteStringInterner(16, 4);
+        String first = interner.intern(utf8("local."));
+        assertEquals("local.", first);
+        assertNotSame(first, interner.intern(utf8("local.")));
+    }
+
+    @Test
+    public void collidingStringsAreStillDecodedCorrectly() {
+        // Two slots for five strings, most of them evict each other
+        ByteStringInterner interner = new ByteStringInterner(2, 64);
+        String[] strings = {"a", "b", "c", "local.", "_http._tcp."};
+        for (int round = 0; round < 3; round++) {
+            for (String string : strings) {
+                assertEquals(string, interner.intern(utf8(string)));
+            }
+        }
+    }
+}
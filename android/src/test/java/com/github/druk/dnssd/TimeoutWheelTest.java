@@ -0,0 +1,125 @@
+package com.github.druk.dnssd;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeoutWheelTest {
+
+    // Real time the wheel thread gets to notice a clock change, it polls at least once a tick
+    private static final long SETTLE_MS = 3 * TimeoutWheel.TICK_MS;
+
+    private final AtomicLong now = new AtomicLong(1000);
+    private final String name = "TimeoutWheelTest-" + System.nanoTime();
+    private final TimeoutWheel wheel = new TimeoutWheel(name, now::get);
+
+    @After
+    public void stopWheelThread() {
+        Thread thread = findWheelThread();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private Thread findWheelThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name)) {
+                return thread;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void firesOnceTheDeadlineHasPassed() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(250, fired::countDown);
+
+        now.addAndGet(200);
+        assertFalse(fired.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+        now.addAndGet(100);
+        assertTrue(fired.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void neverFiresEarlyWhenScheduledLateInATick() throws Exception {
+        // Start the wheel clock, then schedule 99 ms into its first tick
+        wheel.schedule(60 * 1000, () -> { });
+        now.addAndGet(99);
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(100, fired::countDown);
+
+        now.addAndGet(2);
+        assertFalse(fired.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+        now.addAndGet(97);
+        assertFalse(fired.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+        now.addAndGet(TimeoutWheel.TICK_MS);
+        assertTrue(fired.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void cancelledTimeoutsDoNotFire() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        TimeoutWheel.Timeout timeout = wheel.schedule(100, fired::countDown);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+
+        now.addAndGet(500);
+        assertFalse(fired.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void timeoutsLongerThanATurnWaitForTheirRound() throws Exception {
+        long turn = TimeoutWheel.SLOTS * TimeoutWheel.TICK_MS;
+        CountDownLatch fired = new CountDownLatch(1);
+        CountDownLatch early = new CountDownLatch(1);
+        wheel.schedule(turn + 150, fired::countDown);
+        wheel.schedule(150, early::countDown);
+
+        now.addAndGet(200);
+        assertTrue(early.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+        assertFalse(fired.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+
+        now.addAndGet(turn);
+        assertTrue(fired.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void expiredTimeoutsRunInDeadlineOrderAfterAClockJump() throws Exception {
+        StringBuffer order = new StringBuffer();
+        CountDownLatch fired = new CountDownLatch(3);
+        wheel.schedule(300, () -> { order.append('c'); fired.countDown(); });
+        wheel.schedule(100, () -> { order.append('a'); fired.countDown(); });
+        wheel.schedule(200, () -> { order.append('b'); fired.countDown(); });
+
+        // e.g. the device woke up from deep sleep
+        now.addAndGet(10 * 1000);
+        assertTrue(fired.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+        assertEquals("abc", order.toString());
+    }
+
+    @Test
+    public void restartsAfterTheThreadWasInterrupted() throws Exception {
+        CountDownLatch first = new CountDownLatch(1);
+        wheel.schedule(100, first::countDown);
+        now.addAndGet(100);
+        assertTrue(first.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+
+        Thread thread = findWheelThread();
+        thread.interrupt();
+        thread.join(SETTLE_MS);
+        assertFalse(thread.isAlive());
+
+        CountDownLatch second = new CountDownLatch(1);
+        wheel.schedule(100, second::countDown);
+        now.addAndGet(100);
+        assertTrue(second.await(SETTLE_MS, TimeUnit.MILLISECONDS));
+    }
+}
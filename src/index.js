@@ -8,12 +8,134 @@ export const ImplType = {
   DNSSD: 'DNSSD',
 }
 
+const BASE64 = 'ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/'
+const BASE64_INDEX = {}
+for (let i = 0; i < BASE64.length; i++) {
+  BASE64_INDEX[BASE64[i]] = i
+}
+
+const base64ToBytes = input => {
+  const length = input.replace(/=+$/, '').length
+  const bytes = new Uint8Array((length * 3) >> 2)
+  let bits = 0
+  let value = 0
+  let offset = 0
+  for (let i = 0; i < length; i++) {
+    value = (value << 6) | BASE64_INDEX[input[i]]
+    bits += 6
+    if (bits >= 8) {
+      bits -= 8
+      bytes[offset++] = (value >> bits) & 0xff
+    }
+  }
+  return bytes
+}
+
+const utf8ToString = (bytes, start, end) => {
+  let result = ''
+  let i = start
+  while (i < end) {
+    const byte = bytes[i++]
+    let codePoint
+    if (byte < 0x80) {
+      codePoint = byte
+    } else if (byte < 0xe0) {
+      codePoint = ((byte & 0x1f) << 6) | (bytes[i++] & 0x3f)
+    } else if (byte < 0xf0) {
+      codePoint = ((byte & 0x0f) << 12) | ((bytes[i++] & 0x3f) << 6) | (bytes[i++] & 0x3f)
+    } else {
+      codePoint =
+        ((byte & 0x07) << 18) |
+        ((bytes[i++] & 0x3f) << 12) |
+        ((bytes[i++] & 0x3f) << 6) |
+        (bytes[i++] & 0x3f)
+    }
+    result += String.fromCodePoint(codePoint)
+  }
+  return result
+}
+
+/**
+ * Decode the services packed by CompactServiceEncoder on Android, strings are only decoded
+ * the first time a service uses them
+ */
+const decodeServices = packed => {
+  const bytes = base64ToBytes(packed)
+  let offset = 0
+  const readVarint = () => {
+    let value = 0
+    let shift = 0
+    let byte
+    do {
+      byte = bytes[offset++]
+      value += (byte & 0x7f) * 2 ** shift
+      shift += 7
+    } while (byte & 0x80)
+    return value
+  }
+
+  const version = readVarint()
+  if (version !== 1) {
+    throw new Error(`Unsupported packed services version ${version}`)
+  }
+  const stringCount = readVarint()
+  const starts = new Array(stringCount)
+  const ends = new Array(stringCount)
+  for (let i = 0; i < stringCount; i++) {
+    const length = readVarint()
+    starts[i] = offset
+    offset += length
+    ends[i] = offset
+  }
+  const strings = new Array(stringCount)
+  const string = index => {
+    if (strings[index] === undefined) {
+      strings[index] = utf8ToString(bytes, starts[index], ends[index])
+    }
+    return strings[index]
+  }
+  const nullableString = index => (index === 0 ? null : string(index - 1))
+
+  const services = new Array(readVarint())
+  for (let i = 0; i < services.length; i++) {
+    const service = { name: string(readVarint()) }
+    const fullName = nullableString(readVarint())
+    const host = nullableString(readVarint())
+    const port = readVarint()
+    const addresses = new Array(readVarint())
+    for (let j = 0; j < addresses.length; j++) {
+      addresses[j] = string(readVarint())
+    }
+    const txt = {}
+    const txtCount = readVarint()
+    for (let j = 0; j < txtCount; j++) {
+      const key = string(readVarint())
+      txt[key] = string(readVarint())
+    }
+    const flags = readVarint()
+
+    if (host !== null) {
+      service.host = host
+      service.addresses = addresses
+    }
+    service.fullName = fullName
+    service.port = port
+    service.txt = txt
+    if (flags & 1) {
+      service.cached = true
+    }
+    services[i] = service
+  }
+  return services
+}
+
 export default class Zeroconf extends EventEmitter {
   constructor(props) {
     super(props)
 
     this._services = {}
     this._publishedServices = {}
+    this._serviceTypes = []
     this._dListeners = {}
 
     this.addDeviceListeners()
@@ -74,6 +196,35 @@ export default class Zeroconf extends EventEmitter {
       this.emit('update')
     })
 
+    this._dListeners.diff = DeviceEventEmitter.addListener('RNZeroconfDiff', diff => {
+      if (!diff) {
+        return
+      }
+      const { found = [], removed = [] } = diff
+      const resolved = diff.packed
+        ? (diff.resolved || []).concat(decodeServices(diff.packed))
+        : diff.resolved || []
+
+      removed.forEach(name => {
+        if (this._services[name]) {
+          delete this._services[name]
+          this.emit('remove', name)
+        }
+      })
+      found.forEach(name => {
+        if (!this._services[name]) {
+          this._services[name] = { name }
+        }
+        this.emit('found', name)
+      })
+      resolved.forEach(service => {
+        this._services[service.name] = service
+        this.emit('resolved', service)
+      })
+      this.emit('diff', { found, resolved, removed })
+      this.emit('update')
+    })
+
     this._dListeners.published = DeviceEventEmitter.addListener(
       'RNZeroconfServiceRegistered',
       service => {
@@ -97,6 +248,19 @@ export default class Zeroconf extends EventEmitter {
         this.emit('unpublished', service)
       },
     )
+
+    this._dListeners.serviceTypes = DeviceEventEmitter.addListener(
+      'RNZeroconfServiceTypes',
+      types => {
+        this._serviceTypes = types || []
+        this.emit('serviceTypes', this._serviceTypes)
+      },
+    )
+
+    this._dListeners.hostAddress = DeviceEventEmitter.addListener(
+      'RNZeroconfHostAddress',
+      address => this.emit('hostAddress', address),
+    )
   }
 
   /**
@@ -114,20 +278,190 @@ export default class Zeroconf extends EventEmitter {
     return this._services
   }
 
+  /**
+   * Get the services known by the native side, optionally only those of one type.
+   * Also refreshes the services returned by getServices(), e.g. after a JS reload
+   */
+  async getServicesAsync(type = null, protocol = 'tcp', implType = ImplType.NSD) {
+    if (Platform.OS !== 'android') {
+      return this._services
+    }
+
+    const services = await RNZeroconf.getServices(type, protocol, implType)
+    Object.assign(this._services, services)
+    this.emit('update')
+    return services
+  }
+
   /**
    * Scan for Zeroconf services,
    * Defaults to _http._tcp. on local domain
    */
-  scan(type = 'http', protocol = 'tcp', domain = 'local.', implType = ImplType.NSD) {
+  scan(
+    type = 'http',
+    protocol = 'tcp',
+    domain = 'local.',
+    implType = ImplType.NSD,
+    options = null,
+  ) {
     this._services = {}
     this.emit('update')
     if (Platform.OS === 'android') {
-      RNZeroconf.scan(type, protocol, domain, implType)
+      RNZeroconf.scan(type, protocol, domain, implType, options)
     } else {
       RNZeroconf.scan(type, protocol, domain)
     }
   }
 
+  /**
+   * Same as scan(), the promise resolves once the scan is actually running and
+   * rejects with a structured error code (e.g. DNSSD_NO_MEMORY, NSD_MAX_LIMIT)
+   */
+  scanAsync(
+    type = 'http',
+    protocol = 'tcp',
+    domain = 'local.',
+    implType = ImplType.NSD,
+    options = null,
+  ) {
+    if (Platform.OS !== 'android') {
+      const started = this._nextEvent('start')
+      this.scan(type, protocol, domain, implType, options)
+      return started
+    }
+
+    this._services = {}
+    this.emit('update')
+    return RNZeroconf.scanAsync(type, protocol, domain, implType, options)
+  }
+
+  /**
+   * List the domains recommended for browsing or registration (kind 'registration'),
+   * as [{ domain, isDefault }]
+   */
+  enumerateDomains(kind = 'browse', timeoutMs = 1000, implType = ImplType.NSD) {
+    if (Platform.OS === 'android') {
+      return RNZeroconf.enumerateDomains(kind, timeoutMs, implType)
+    }
+
+    return Promise.resolve([{ domain: 'local.', isDefault: true }])
+  }
+
+  /**
+   * Resolve with the service once the running scan has resolved it,
+   * rejects with TIMEOUT after timeoutMs, or on Android with NOT_SCANNING
+   * right away when no scan of the type is running
+   */
+  resolveOnce(name, type = 'http', protocol = 'tcp', timeoutMs = 5000, implType = ImplType.NSD) {
+    if (Platform.OS === 'android') {
+      return RNZeroconf.resolveOnce(name, type, protocol, timeoutMs, implType)
+    }
+
+    if (this._services[name] && this._services[name].addresses) {
+      return Promise.resolve(this._services[name])
+    }
+    return this._nextEvent('resolved', service => service.name === name, timeoutMs)
+  }
+
+  /**
+   * Resolve a service by name without scanning its type first, results are cached natively
+   * for the record TTL. On iOS it falls back to resolveOnce
+   */
+  resolveService(
+    name,
+    type = 'http',
+    protocol = 'tcp',
+    domain = 'local.',
+    timeoutMs = 5000,
+    implType = ImplType.NSD,
+  ) {
+    if (Platform.OS === 'android') {
+      return RNZeroconf.resolveService(name, type, protocol, domain, timeoutMs, implType)
+    }
+
+    return this.resolveOnce(name, type, protocol, timeoutMs, implType)
+  }
+
+  /**
+   * Browse the service types announced on the network, the deduplicated list is emitted as
+   * serviceTypes events. Resolves once the browse is running
+   */
+  browseServiceTypes(implType = ImplType.NSD) {
+    if (Platform.OS === 'android') {
+      this._serviceTypes = []
+      return RNZeroconf.browseServiceTypes(implType)
+    }
+
+    const error = new Error('browseServiceTypes is only available on Android')
+    error.code = 'UNSUPPORTED'
+    return Promise.reject(error)
+  }
+
+  /**
+   * Stop browsing service types
+   */
+  stopBrowseServiceTypes(implType = ImplType.NSD) {
+    if (Platform.OS === 'android') {
+      RNZeroconf.stopBrowseServiceTypes(implType)
+    }
+  }
+
+  /**
+   * Get the service types found by browseServiceTypes, as [{ type, count }]
+   */
+  getServiceTypes() {
+    return this._serviceTypes
+  }
+
+  /**
+   * Look up the addresses of a host name, resolving with the first answer. With stream set,
+   * later addresses are emitted as hostAddress events until timeoutMs
+   */
+  resolveHost(hostname, family = 'any', timeoutMs = 5000, stream = false, implType = ImplType.NSD) {
+    if (Platform.OS === 'android') {
+      return RNZeroconf.resolveHost(hostname, family, timeoutMs, stream, implType)
+    }
+
+    const error = new Error('resolveHost is only available on Android')
+    error.code = 'UNSUPPORTED'
+    return Promise.reject(error)
+  }
+
+  /**
+   * Wait for the next event matching the predicate, used where the native side has no promise API
+   */
+  _nextEvent(event, predicate = () => true, timeoutMs = 0) {
+    return new Promise((resolve, reject) => {
+      let timer = null
+      const cleanup = () => {
+        clearTimeout(timer)
+        this.removeListener(event, onEvent)
+        this.removeListener('error', onError)
+      }
+      const onEvent = value => {
+        if (predicate(value)) {
+          cleanup()
+          resolve(value)
+        }
+      }
+      const onError = err => {
+        cleanup()
+        reject(err)
+      }
+
+      this.on(event, onEvent)
+      this.on('error', onError)
+      if (timeoutMs > 0) {
+        timer = setTimeout(() => {
+          cleanup()
+          const err = new Error(`${event} not received within ${timeoutMs}ms`)
+          err.code = 'TIMEOUT'
+          reject(err)
+        }, timeoutMs)
+      }
+    })
+  }
+
   /**
    * Stop current scan if any
    */
@@ -142,17 +476,123 @@ export default class Zeroconf extends EventEmitter {
   /**
    * Publish a service
    */
-  publishService(type, protocol, domain = 'local.', name, port, txt = {}, implType = ImplType.NSD) {
+  publishService(
+    type,
+    protocol,
+    domain = 'local.',
+    name,
+    port,
+    txt = {},
+    implType = ImplType.NSD,
+    subtypes = [],
+  ) {
     if (Object.keys(txt).length !== 0) {
       Object.entries(txt).map(([key, value]) => (txt[key] = value.toString()))
     }
     if (Platform.OS === 'android') {
-      RNZeroconf.registerService(type, protocol, domain, name, port, txt, implType)
+      RNZeroconf.registerService(type, protocol, domain, name, port, txt, implType, subtypes)
     } else {
       RNZeroconf.registerService(type, protocol, domain, name, port, txt)
     }
   }
 
+  /**
+   * Same as publishService(), the promise resolves with the registered service
+   * (its name may have been changed to resolve a conflict)
+   */
+  publishServiceAsync(
+    type,
+    protocol,
+    domain = 'local.',
+    name,
+    port,
+    txt = {},
+    implType = ImplType.NSD,
+    subtypes = [],
+  ) {
+    if (Object.keys(txt).length !== 0) {
+      Object.entries(txt).map(([key, value]) => (txt[key] = value.toString()))
+    }
+    if (Platform.OS !== 'android') {
+      const published = this._nextEvent('published')
+      RNZeroconf.registerService(type, protocol, domain, name, port, txt)
+      return published
+    }
+    return RNZeroconf.registerServiceAsync(
+      type,
+      protocol,
+      domain,
+      name,
+      port,
+      txt,
+      implType,
+      subtypes,
+    )
+  }
+
+  /**
+   * Get the counters of the current scan: found, resolved, filteredByName and filteredByTxt
+   */
+  getStats(implType = ImplType.NSD) {
+    if (Platform.OS === 'android') {
+      return RNZeroconf.getStats(implType)
+    }
+
+    const error = new Error('getStats is only available on Android')
+    error.code = 'UNSUPPORTED'
+    return Promise.reject(error)
+  }
+
+  /**
+   * Send the service changes as one diff event every intervalMs instead of one event each,
+   * 0 turns batching off. compact packs the resolved services of each diff into one string,
+   * cheaper to send over the bridge for large batches
+   */
+  setEventBatching(intervalMs, compact = false) {
+    if (Platform.OS === 'android') {
+      RNZeroconf.setEventBatching(intervalMs, compact)
+    }
+  }
+
+  /**
+   * Choose whether scans pause and events are held back while the app is in the background,
+   * held back events are sent as one diff when the app resumes
+   */
+  setBackgroundPolicy({ pauseScans = false, bufferEvents = false } = {}) {
+    if (Platform.OS === 'android') {
+      RNZeroconf.setBackgroundPolicy(pauseScans, bufferEvents)
+    }
+  }
+
+  /**
+   * Persist resolved services across app restarts, scans then replay them right away
+   * with cached: true until live discovery confirms them
+   */
+  setPersistentCache(enabled, maxEntries = 256) {
+    if (Platform.OS === 'android') {
+      RNZeroconf.setPersistentCache(enabled, maxEntries)
+    }
+  }
+
+  /**
+   * Tell the native side that a discovered service could not be reached,
+   * so its records are verified and it is removed if it is gone
+   */
+  reportUnreachable(name, implType = ImplType.NSD) {
+    if (Platform.OS === 'android') {
+      RNZeroconf.reportUnreachable(name, implType)
+    }
+  }
+
+  /**
+   * Verify services that have not been seen for windowMs milliseconds, 0 disables it
+   */
+  setLivenessWindow(windowMs, implType = ImplType.NSD) {
+    if (Platform.OS === 'android') {
+      RNZeroconf.setLivenessWindow(windowMs, implType)
+    }
+  }
+
   /**
    * Unpublish a service
    */